@@ -0,0 +1,630 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class Benchmarker {
+	
+	public static void main(String[] args)
+	{
+		/**
+		 * Benchmark parameters:
+		 *
+		 * benchmark - name of the benchmark to run, supports "CSVIngestion", "PreSort", "HistogramSplits", "ParallelConstruction", "CompiledInference", "BatchPrediction" and "MergedEvaluation"
+		 * syntheticDatasetPath - path of the synthetic longitudinal .csv file, generated if it does not exist
+		 * numberOfInstances - number of instances in the synthetic dataset
+		 * numberOfWaves - number of waves each longitudinal attribute is measured in
+		 * missingValueRate - proportion of values replaced with the missing value representation
+		 * repetitions - number of times each measurement is repeated, the best time is reported
+		 * preSortNumberOfInstances - number of instances in the columns sorted by the PreSort benchmark, kept small as the recursive sort is quadratic on them
+		 * modelDatasetPath - path of the synthetic longitudinal .csv file used by the model construction benchmarks, generated if it does not exist
+		 * modelNumberOfInstances - number of instances in that dataset
+		 * numberOfFolds - number of cross-validation folds the models are constructed and evaluated on
+		 * histogramBins - numbers of bins compared with the exact split search by the HistogramSplits benchmark
+		 * constructionThreads - numbers of construction threads compared by the ParallelConstruction benchmark
+		 * inferenceTreeDepths - maximum depths of the trees compiled by the CompiledInference benchmark
+		 * inferenceNestedDepths - maximum depths of the nested trees flattened by the CompiledInference benchmark, their inner trees have a maximum depth of 3
+		 * evaluationParts - numbers of parts whose evaluation accumulators are merged by the MergedEvaluation benchmark
+		 *
+		 */
+		
+		String benchmark = "CSVIngestion";
+		String syntheticDatasetPath = "syntheticDatasets/synthetic_longitudinal_1M.csv";
+		int numberOfInstances = 1000000;
+		int numberOfWaves = 2;
+		double missingValueRate = 0.1;
+		int repetitions = 3;
+		int preSortNumberOfInstances = 20000;
+		String modelDatasetPath = "syntheticDatasets/synthetic_longitudinal_20k.csv";
+		int modelNumberOfInstances = 20000;
+		int numberOfFolds = 5;
+		int[] histogramBins = new int[] {16, 64, 255};
+		int[] constructionThreads = new int[] {1, 2, 4, 8, 16};
+		int[] inferenceTreeDepths = new int[] {4, 8, 10, 12, 16};
+		int[] inferenceNestedDepths = new int[] {2, 4};
+		int[] evaluationParts = new int[] {2, 16};
+		
+		/**
+		 * End of parameters list
+		 */
+		
+		if(args.length > 0)
+			benchmark = args[0];
+		
+		if(benchmark.equals("CSVIngestion"))
+		{
+			generateSyntheticLongitudinalCSV(syntheticDatasetPath, numberOfInstances, numberOfWaves, missingValueRate, 0l);
+			benchmarkCSVIngestion(syntheticDatasetPath, repetitions);
+		}
+		else if(benchmark.equals("PreSort"))
+		{
+			benchmarkPreSort(preSortNumberOfInstances, missingValueRate, repetitions);
+		}
+		else if(benchmark.equals("HistogramSplits"))
+		{
+			generateSyntheticLongitudinalCSV(modelDatasetPath, modelNumberOfInstances, numberOfWaves, missingValueRate, 0l);
+			Dataset dataset = readModelDataset(modelDatasetPath);
+			benchmarkHistogramSplits(dataset, "Tree", "Accuracy,5,3,false,2,false", numberOfFolds, histogramBins);
+			benchmarkHistogramSplits(dataset, "Nested Tree", "Accuracy,5,3,false,2,false", numberOfFolds, histogramBins);
+		}
+		else if(benchmark.equals("ParallelConstruction"))
+		{
+			generateSyntheticLongitudinalCSV(modelDatasetPath, modelNumberOfInstances, numberOfWaves, missingValueRate, 0l);
+			Dataset dataset = readModelDataset(modelDatasetPath);
+			benchmarkParallelConstruction(dataset, "Tree", "Accuracy,12,3,false,2,false,Exact", constructionThreads, repetitions);
+			benchmarkParallelConstruction(dataset, "Nested Tree", "Accuracy,5,3,false,2,false,Exact", constructionThreads, repetitions);
+		}
+		else if(benchmark.equals("CompiledInference"))
+		{
+			generateSyntheticLongitudinalCSV(modelDatasetPath, modelNumberOfInstances, numberOfWaves, missingValueRate, 0l);
+			Dataset dataset = readModelDataset(modelDatasetPath);
+			benchmarkCompiledInference(dataset, inferenceTreeDepths, repetitions);
+			benchmarkNestedCompiledInference(dataset, inferenceNestedDepths, 3, repetitions);
+		}
+		else if(benchmark.equals("BatchPrediction"))
+		{
+			generateSyntheticLongitudinalCSV(modelDatasetPath, modelNumberOfInstances, numberOfWaves, missingValueRate, 0l);
+			Dataset dataset = readModelDataset(modelDatasetPath);
+			for(int treeDepth : inferenceTreeDepths)
+			{
+				DecisionTree tree = new DecisionTree();
+				tree.maxDepth = treeDepth;
+				tree.construct(dataset);
+				benchmarkBatchPrediction(dataset, tree, "Tree of depth " + treeDepth, repetitions);
+			}
+			for(int nestedDepth : inferenceNestedDepths)
+			{
+				NestedDecisionTree tree = new NestedDecisionTree();
+				tree.maxDepth = nestedDepth;
+				tree.maxDepthNested = 3;
+				tree.construct(dataset);
+				benchmarkBatchPrediction(dataset, tree, "Nested tree of depth " + nestedDepth, repetitions);
+			}
+		}
+		else if(benchmark.equals("MergedEvaluation"))
+		{
+			generateSyntheticLongitudinalCSV(modelDatasetPath, modelNumberOfInstances, numberOfWaves, missingValueRate, 0l);
+			Dataset dataset = readModelDataset(modelDatasetPath);
+			for(boolean regression : new boolean[] {false, true})
+			{
+				DecisionTree tree = new DecisionTree();
+				tree.maxDepth = 8;
+				tree.construct(dataset);
+				if(regression)
+					tree.convertToRegression();
+				benchmarkMergedEvaluation(dataset, tree, regression ? "Regression tree" : "Tree", evaluationParts, repetitions);
+			}
+		}
+		else
+			System.out.println("Benchmark " + benchmark + " is not supported");
+	}
+	
+	/*
+	 * Generates a longitudinal dataset with an Id attribute, one attribute per ELSA attribute and wave, and a binary Class attribute
+	 * The file is not regenerated if it already exists
+	 */
+	public static void generateSyntheticLongitudinalCSV(String path, int numberOfInstances, int numberOfWaves, double missingValueRate, long randomSeed)
+	{
+		File file = new File(path);
+		if(file.exists())
+			return;
+		if(file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+		
+		Random random = new Random(randomSeed);
+		String[] longitudinalAttributes = Util.getElsaAttributes();
+		
+		try {
+			FileWriter myWriter = new FileWriter(path);
+			StringBuilder line = new StringBuilder("Id");
+			for(String longitudinalAttribute : longitudinalAttributes)
+				for(int wave = 1; wave <= numberOfWaves; wave++)
+					line.append(", ").append(longitudinalAttribute).append("_w").append(wave);
+			line.append(", Class\n");
+			myWriter.write(line.toString());
+			
+			for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+			{
+				line.setLength(0);
+				line.append(instanceIndex);
+				double risk = 0.0;
+				for(int attributeIndex = 0; attributeIndex < longitudinalAttributes.length; attributeIndex++)
+				{
+					// Each attribute drifts slowly between waves, values are rounded to resemble measurements
+					double value = random.nextGaussian() * 10.0 + 50.0;
+					for(int wave = 1; wave <= numberOfWaves; wave++)
+					{
+						value += random.nextGaussian();
+						line.append(", ");
+						if(random.nextDouble() < missingValueRate)
+							line.append('?');
+						else
+							line.append(Math.round(value * 10.0) / 10.0);
+					}
+					if(attributeIndex < 3)
+						risk += value - 50.0;
+				}
+				line.append(", ").append(risk + random.nextGaussian() * 10.0 > 0.0 ? 1 : 0).append('\n');
+				myWriter.write(line.toString());
+			}
+			myWriter.close();
+		} catch (IOException e) {
+			System.out.println("Failed to write to " + path);
+			e.printStackTrace();
+		}
+	}
+	
+	public static void benchmarkCSVIngestion(String path, int repetitions)
+	{
+		double fileSizeMB = new File(path).length() / (1024.0 * 1024.0);
+		
+		long bestStreamingTime = Long.MAX_VALUE;
+		long bestLineSplitTime = Long.MAX_VALUE;
+		long streamingMemory = 0;
+		int numberOfInstances = 0;
+		
+		for(int repetition = 0; repetition < repetitions; repetition++)
+		{
+			// Streaming loader used by Dataset
+			System.gc();
+			long memoryBefore = usedMemory();
+			long start = System.nanoTime();
+			Dataset dataset = new Dataset();
+			dataset.setColumnar(true);
+			dataset.setMissingValueString("?");
+			dataset.readFromCSV(path);
+			bestStreamingTime = Math.min(bestStreamingTime, System.nanoTime() - start);
+			streamingMemory = usedMemory() - memoryBefore;
+			numberOfInstances = dataset.getNumberOfInstances();
+			dataset = null;
+			
+			// Reference loader reading lines and splitting them into Strings
+			System.gc();
+			start = System.nanoTime();
+			double[][] values = readLineSplit(path, "?", Double.MAX_VALUE);
+			bestLineSplitTime = Math.min(bestLineSplitTime, System.nanoTime() - start);
+			values = null;
+		}
+		
+		System.out.println("CSV ingestion of " + path + " (" + numberOfInstances + " instances, " + String.format("%.1f", fileSizeMB) + " MB)");
+		System.out.println("Streaming loader:  " + String.format("%.3f", bestStreamingTime / 1e9) + " s, " + String.format("%.1f", fileSizeMB / (bestStreamingTime / 1e9)) + " MB/s, retained " + (streamingMemory / (1024 * 1024)) + " MB");
+		System.out.println("Line split loader: " + String.format("%.3f", bestLineSplitTime / 1e9) + " s, " + String.format("%.1f", fileSizeMB / (bestLineSplitTime / 1e9)) + " MB/s");
+	}
+	
+	/*
+	 * Compares the radix index sort used by Dataset.preSort with the recursive Quicksort.sort25 it replaced
+	 * on random, sorted, constant and heavily missing columns
+	 */
+	public static void benchmarkPreSort(int numberOfInstances, double missingValueRate, int repetitions)
+	{
+		Random random = new Random(0l);
+		String[] columnTypes = new String[] {"Random", "Sorted", "Constant", "Heavily missing"};
+		double[][] columns = new double[columnTypes.length][numberOfInstances];
+		for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+		{
+			columns[0][instanceIndex] = Math.round(random.nextGaussian() * 100.0) / 10.0;
+			columns[1][instanceIndex] = instanceIndex / 10;
+			columns[2][instanceIndex] = 1.0;
+			columns[3][instanceIndex] = random.nextDouble() < Math.max(missingValueRate, 0.9) ? Double.MAX_VALUE : random.nextInt(10);
+		}
+		
+		System.out.println("Pre-sort of " + numberOfInstances + " instances");
+		for(int columnIndex = 0; columnIndex < columnTypes.length; columnIndex++)
+		{
+			long bestRadixTime = Long.MAX_VALUE;
+			long bestQuicksortTime = Long.MAX_VALUE;
+			for(int repetition = 0; repetition < repetitions; repetition++)
+			{
+				long start = System.nanoTime();
+				Quicksort.sortIndexes(columns[columnIndex]);
+				bestRadixTime = Math.min(bestRadixTime, System.nanoTime() - start);
+				
+				double[][] rows = new double[numberOfInstances][];
+				int[] indexes = new int[numberOfInstances];
+				for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+				{
+					rows[instanceIndex] = new double[] {columns[columnIndex][instanceIndex]};
+					indexes[instanceIndex] = instanceIndex;
+				}
+				start = System.nanoTime();
+				Quicksort.sort25(rows, indexes, 0);
+				bestQuicksortTime = Math.min(bestQuicksortTime, System.nanoTime() - start);
+			}
+			System.out.println(columnTypes[columnIndex] + " column: radix index sort " + String.format("%.3f", bestRadixTime / 1e6) + " ms, recursive quicksort " + String.format("%.3f", bestQuicksortTime / 1e6) + " ms");
+		}
+	}
+	
+	/*
+	 * Reads a synthetic longitudinal dataset and prepares it for model construction
+	 */
+	public static Dataset readModelDataset(String path)
+	{
+		Dataset dataset = new Dataset();
+		dataset.setColumnar(true);
+		dataset.setMissingValueString("?");
+		dataset.readFromCSV(path);
+		dataset.setIdAttribute("Id");
+		dataset.setClassAttribute("Class");
+		dataset.preSort(Runtime.getRuntime().availableProcessors());
+		dataset.initialiseUniqueClassValues();
+		dataset.generateLongitudinalAttributes(Util.getElsaAttributes());
+		return dataset;
+	}
+	
+	/*
+	 * Constructs models with the exact and the histogram split search on the same cross-validation folds
+	 * Reports construction time, test accuracy and the share of test predictions that agree with the exact models
+	 */
+	public static void benchmarkHistogramSplits(Dataset dataset, String modelType, String parameters, int numberOfFolds, int[] histogramBins)
+	{
+		double[][][] crossValidationSplits = ModelEvaluator.generateStratifiedCrossValidationSplits(dataset, numberOfFolds, 0l);
+		double[][] exactPredictions = new double[numberOfFolds][];
+		
+		System.out.println(modelType + " split search on " + dataset.getNumberOfInstances() + " instances, " + numberOfFolds + " folds, parameters: " + parameters);
+		for(int binsIndex = -1; binsIndex < histogramBins.length; binsIndex++)
+		{
+			String splitSearch = "Exact";
+			if(binsIndex >= 0)
+			{
+				dataset.quantise(histogramBins[binsIndex]);
+				splitSearch = "Histogram";
+			}
+			
+			long constructionTime = 0;
+			double accuracy = 0.0;
+			double agreement = 0.0;
+			for(int foldIndex = 0; foldIndex < numberOfFolds; foldIndex++)
+			{
+				double[] trainingSet = crossValidationSplits[foldIndex][0];
+				double[] testSet = crossValidationSplits[foldIndex][1];
+				long start = System.nanoTime();
+				PredictionModel model = ModelEvaluator.constructPredictionModel(modelType, dataset, trainingSet, parameters + "," + splitSearch);
+				constructionTime += System.nanoTime() - start;
+				
+				double[] predictions = model.predict(dataset, testSet);
+				accuracy += ModelEvaluator.evaluatePredictionModel(model, dataset, testSet)[0][0] / numberOfFolds;
+				if(binsIndex == -1)
+					exactPredictions[foldIndex] = predictions;
+				agreement += Util.countMatchesWeighted(exactPredictions[foldIndex], predictions, testSet) / Util.sum(testSet) / numberOfFolds;
+			}
+			
+			String name = binsIndex == -1 ? "Exact" : "Histogram (" + histogramBins[binsIndex] + " bins)";
+			System.out.println(name + ": construction " + String.format("%.3f", constructionTime / 1e9) + " s, accuracy " + String.format("%.4f", accuracy) + ", agreement with exact " + String.format("%.4f", agreement));
+		}
+	}
+	
+	/*
+	 * Constructs a model on the whole dataset with each number of construction threads
+	 * Reports the best construction time, the speedup over the first number of threads and whether the model is identical to the one constructed with it
+	 */
+	public static void benchmarkParallelConstruction(Dataset dataset, String modelType, String parameters, int[] constructionThreads, int repetitions)
+	{
+		double[] subset = Util.fill(1.0, dataset.getNumberOfInstances());
+		long firstTime = 0;
+		String firstModel = null;
+		
+		System.out.println(modelType + " parallel construction on " + dataset.getNumberOfInstances() + " instances, parameters: " + parameters);
+		for(int threads : constructionThreads)
+		{
+			long bestTime = Long.MAX_VALUE;
+			String model = null;
+			for(int repetition = 0; repetition < repetitions; repetition++)
+			{
+				long start = System.nanoTime();
+				PredictionModel predictionModel = ModelEvaluator.constructPredictionModel(modelType, dataset, subset, parameters + "," + threads);
+				bestTime = Math.min(bestTime, System.nanoTime() - start);
+				model = predictionModel.toString();
+			}
+			if(firstModel == null)
+			{
+				firstTime = bestTime;
+				firstModel = model;
+			}
+			System.out.println(threads + " threads: construction " + String.format("%.3f", bestTime / 1e9) + " s, speedup " + String.format("%.2f", (double)firstTime / bestTime) + ", identical model " + model.equals(firstModel));
+		}
+	}
+	
+	/*
+	 * Predicts all instances with trees of each depth and their binary conversions, both by walking the tree nodes and with the compiled tree
+	 * Reports the best prediction times and the number of instances whose compiled and interpreted leaf indexes differ, which must be 0
+	 * A binary tree whose root is a leaf is checked as well
+	 */
+	public static void benchmarkCompiledInference(Dataset dataset, int[] treeDepths, int repetitions)
+	{
+		int numberOfInstances = dataset.getNumberOfInstances();
+		System.out.println("Compiled inference on " + numberOfInstances + " instances");
+		int[] allTreeDepths = new int[treeDepths.length + 1];
+		allTreeDepths[0] = 1;
+		System.arraycopy(treeDepths, 0, allTreeDepths, 1, treeDepths.length);
+		for(int treeDepth : allTreeDepths)
+		{
+			for(boolean binary : new boolean[] {false, true})
+			{
+				if(treeDepth == 1 && !binary)
+					continue;
+				DecisionTree tree = new DecisionTree();
+				tree.maxDepth = treeDepth;
+				tree.construct(dataset);
+				if(binary)
+					tree.convertToBinaryTree();
+				CompiledTree compiledTree = tree.getCompiledTree();
+				
+				long bestInterpretedTime = Long.MAX_VALUE;
+				long bestCompiledTime = Long.MAX_VALUE;
+				int mismatches = 0;
+				for(int repetition = 0; repetition < repetitions; repetition++)
+				{
+					int[] interpretedLeafIndexes = new int[numberOfInstances];
+					long start = System.nanoTime();
+					for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+						interpretedLeafIndexes[instanceIndex] = tree.interpretAsLeafIndex(dataset, instanceIndex);
+					bestInterpretedTime = Math.min(bestInterpretedTime, System.nanoTime() - start);
+					
+					start = System.nanoTime();
+					int[] compiledLeafIndexes = compiledTree.predictAsLeafIndexes(dataset, null);
+					bestCompiledTime = Math.min(bestCompiledTime, System.nanoTime() - start);
+					
+					mismatches = 0;
+					for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+						if(interpretedLeafIndexes[instanceIndex] != compiledLeafIndexes[instanceIndex] || interpretedLeafIndexes[instanceIndex] != compiledTree.predictAsLeafIndex(dataset, instanceIndex))
+							mismatches++;
+				}
+				int[] generatedMismatches = new int[1];
+				boolean[] generatedUsed = new boolean[1];
+				long bestGeneratedTime = benchmarkGeneratedPredictor(dataset, compiledTree, repetitions, generatedMismatches, generatedUsed);
+				mismatches += generatedMismatches[0];
+				System.out.println((binary ? "Binary tree" : "Tree") + " of depth " + treeDepth + " (" + tree.size() + " nodes): interpreted " + String.format("%.3f", bestInterpretedTime / 1e6) + " ms, compiled " + String.format("%.3f", bestCompiledTime / 1e6) + " ms, generated " + (bestGeneratedTime == -1 ? "too large" : String.format("%.3f", bestGeneratedTime / 1e6) + " ms" + (generatedUsed[0] ? " (used)" : " (not used)")) + ", mismatches " + mismatches);
+			}
+		}
+	}
+	
+	/*
+	 * Compares walking the outer nodes of nested trees, whose inner trees are compiled, with the flattened nested tree
+	 */
+	public static void benchmarkNestedCompiledInference(Dataset dataset, int[] nestedDepths, int innerDepth, int repetitions)
+	{
+		int numberOfInstances = dataset.getNumberOfInstances();
+		System.out.println("Nested compiled inference on " + numberOfInstances + " instances");
+		for(int nestedDepth : nestedDepths)
+		{
+			for(boolean binary : new boolean[] {false, true})
+			{
+				NestedDecisionTree tree = new NestedDecisionTree();
+				tree.maxDepth = nestedDepth;
+				tree.maxDepthNested = innerDepth;
+				tree.binaryConversion = binary;
+				tree.construct(dataset);
+				CompiledTree compiledTree = tree.getCompiledTree();
+				
+				long bestInterpretedTime = Long.MAX_VALUE;
+				long bestCompiledTime = Long.MAX_VALUE;
+				int mismatches = 0;
+				for(int repetition = 0; repetition < repetitions; repetition++)
+				{
+					int[] interpretedLeafIndexes = new int[numberOfInstances];
+					long start = System.nanoTime();
+					for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+						interpretedLeafIndexes[instanceIndex] = tree.interpretAsLeafIndex(dataset, instanceIndex);
+					bestInterpretedTime = Math.min(bestInterpretedTime, System.nanoTime() - start);
+					
+					start = System.nanoTime();
+					int[] compiledLeafIndexes = compiledTree.predictAsLeafIndexes(dataset, null);
+					bestCompiledTime = Math.min(bestCompiledTime, System.nanoTime() - start);
+					
+					mismatches = 0;
+					for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+						if(interpretedLeafIndexes[instanceIndex] != compiledLeafIndexes[instanceIndex] || interpretedLeafIndexes[instanceIndex] != compiledTree.predictAsLeafIndex(dataset, instanceIndex))
+							mismatches++;
+				}
+				int[] generatedMismatches = new int[1];
+				boolean[] generatedUsed = new boolean[1];
+				long bestGeneratedTime = benchmarkGeneratedPredictor(dataset, compiledTree, repetitions, generatedMismatches, generatedUsed);
+				mismatches += generatedMismatches[0];
+				System.out.println((binary ? "Binary nested tree" : "Nested tree") + " of depth " + nestedDepth + " (" + tree.size() + " outer nodes, " + compiledTree.size() + " flattened nodes): interpreted " + String.format("%.1f", (double)bestInterpretedTime / numberOfInstances) + " ns per instance, compiled " + String.format("%.1f", (double)bestCompiledTime / numberOfInstances) + " ns per instance, generated " + (bestGeneratedTime == -1 ? "too large" : String.format("%.1f", (double)bestGeneratedTime / numberOfInstances) + " ns per instance" + (generatedUsed[0] ? " (used)" : " (not used)")) + ", mismatches " + mismatches);
+			}
+		}
+	}
+	
+	/*
+	 * Compares predicting every other instance one call at a time with the batch prediction routing blocks of them down the model
+	 * Both write into the same preallocated buffers
+	 */
+	public static void benchmarkBatchPrediction(Dataset dataset, PredictionModel model, String modelDescription, int repetitions)
+	{
+		int[] instanceIndexes = new int[(dataset.getNumberOfInstances() + 1) / 2];
+		for(int index = 0; index < instanceIndexes.length; index++)
+			instanceIndexes[index] = 2 * index;
+		double[] singlePredictions = new double[instanceIndexes.length];
+		double[] batchPredictions = new double[instanceIndexes.length];
+		
+		long bestSingleTime = Long.MAX_VALUE;
+		long bestBatchTime = Long.MAX_VALUE;
+		int mismatches = 0;
+		for(int repetition = 0; repetition < repetitions; repetition++)
+		{
+			long start = System.nanoTime();
+			for(int index = 0; index < instanceIndexes.length; index++)
+				singlePredictions[index] = model.predict(dataset, instanceIndexes[index]);
+			bestSingleTime = Math.min(bestSingleTime, System.nanoTime() - start);
+			
+			start = System.nanoTime();
+			model.predict(dataset, instanceIndexes, instanceIndexes.length, batchPredictions);
+			bestBatchTime = Math.min(bestBatchTime, System.nanoTime() - start);
+			
+			mismatches = 0;
+			for(int index = 0; index < instanceIndexes.length; index++)
+				if(singlePredictions[index] != batchPredictions[index])
+					mismatches++;
+		}
+		System.out.println(modelDescription + " (" + model.size() + " nodes) on " + instanceIndexes.length + " instances: single " + String.format("%.3f", bestSingleTime / 1e6) + " ms, batch " + String.format("%.3f", bestBatchTime / 1e6) + " ms, mismatches " + mismatches);
+	}
+	
+	/*
+	 * Compares accumulating the evaluation of a model on all instances with accumulating interleaved parts of them and merging the accumulators
+	 * All weights are 1.0, so the merged measures must be identical, measures that differ and merged totals that do not add up are counted as mismatches
+	 */
+	public static void benchmarkMergedEvaluation(Dataset dataset, PredictionModel model, String modelDescription, int[] numbersOfParts, int repetitions)
+	{
+		int numberOfInstances = dataset.getNumberOfInstances();
+		double[] subset = Util.fill(1.0, numberOfInstances);
+		
+		EvaluationAccumulator accumulator = null;
+		long bestTime = Long.MAX_VALUE;
+		for(int repetition = 0; repetition < repetitions; repetition++)
+		{
+			long start = System.nanoTime();
+			accumulator = ModelEvaluator.accumulatePredictions(model, dataset, subset);
+			bestTime = Math.min(bestTime, System.nanoTime() - start);
+		}
+		double[] measures = evaluationMeasures(accumulator);
+		System.out.println(modelDescription + " on " + numberOfInstances + " instances: single accumulator " + String.format("%.3f", bestTime / 1e6) + " ms");
+		
+		for(int numberOfParts : numbersOfParts)
+		{
+			double[][] partSubsets = new double[numberOfParts][numberOfInstances];
+			for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+				partSubsets[instanceIndex % numberOfParts][instanceIndex] = 1.0;
+			
+			EvaluationAccumulator mergedAccumulator = null;
+			long bestMergedTime = Long.MAX_VALUE;
+			for(int repetition = 0; repetition < repetitions; repetition++)
+			{
+				long start = System.nanoTime();
+				mergedAccumulator = ModelEvaluator.accumulatePredictions(model, dataset, partSubsets[0]);
+				for(int part = 1; part < numberOfParts; part++)
+					mergedAccumulator.merge(ModelEvaluator.accumulatePredictions(model, dataset, partSubsets[part]));
+				bestMergedTime = Math.min(bestMergedTime, System.nanoTime() - start);
+			}
+			// Each part excludes the instances of the others, together they cover the dataset
+			mergedAccumulator.setHasExcludedInstances(false);
+			
+			double[] mergedMeasures = evaluationMeasures(mergedAccumulator);
+			int mismatches = 0;
+			for(int measureIndex = 0; measureIndex < measures.length; measureIndex++)
+				if(Double.compare(measures[measureIndex], mergedMeasures[measureIndex]) != 0)
+					mismatches++;
+			if(mergedAccumulator.getNumberOfInstances() != numberOfInstances)
+				mismatches++;
+			if(mergedAccumulator.getSumOfWeights() != accumulator.getSumOfWeights())
+				mismatches++;
+			System.out.println(modelDescription + " on " + numberOfParts + " merged parts: " + String.format("%.3f", bestMergedTime / 1e6) + " ms, mismatches " + mismatches);
+		}
+	}
+	
+	/*
+	 * Accuracy, F-measures, Gini and AUROC of an accumulator
+	 */
+	private static double[] evaluationMeasures(EvaluationAccumulator accumulator)
+	{
+		double[] classFMeasures = accumulator.getClassFMeasures();
+		double[] measures = new double[classFMeasures.length + 5];
+		System.arraycopy(classFMeasures, 0, measures, 0, classFMeasures.length);
+		measures[classFMeasures.length] = accumulator.getAccuracy();
+		measures[classFMeasures.length + 1] = accumulator.getAverageFMeasure(classFMeasures);
+		measures[classFMeasures.length + 2] = accumulator.getWeightedAverageFMeasure(classFMeasures);
+		measures[classFMeasures.length + 3] = accumulator.getGini();
+		measures[classFMeasures.length + 4] = accumulator.getAUROC();
+		return measures;
+	}
+	
+	/*
+	 * Generates a predictor class from the compiled tree and returns the best time of predicting all instances through it, or -1 if the tree is too large for one
+	 * Instances predicted differently from the array walk of the compiled tree are counted in mismatches[0]
+	 * used[0] tells whether the compiled tree generates the class itself, and so makes its batch predictions through it, the class is timed either way
+	 * to compare it with routing blocks
+	 */
+	public static long benchmarkGeneratedPredictor(Dataset dataset, CompiledTree compiledTree, int repetitions, int[] mismatches, boolean[] used)
+	{
+		int[] compiledLeafIndexes = compiledTree.predictAsLeafIndexes(dataset, null);
+		TreePredictor predictor = compiledTree.generatePredictor();
+		used[0] = predictor != null;
+		if(predictor == null)
+			predictor = TreePredictorGenerator.generate(compiledTree);
+		if(predictor == null)
+			return -1;
+		
+		double[][] columns = new double[dataset.getNumberOfAttributes()][];
+		for(int attributeIndex = 0; attributeIndex < columns.length; attributeIndex++)
+			columns[attributeIndex] = dataset.getAttributeValues(attributeIndex);
+		double missingValue = dataset.getMissingValue();
+		int[] generatedLeafIndexes = new int[compiledLeafIndexes.length];
+		
+		long bestGeneratedTime = Long.MAX_VALUE;
+		for(int repetition = 0; repetition < repetitions; repetition++)
+		{
+			long start = System.nanoTime();
+			for(int instanceIndex = 0; instanceIndex < generatedLeafIndexes.length; instanceIndex++)
+				generatedLeafIndexes[instanceIndex] = predictor.predictAsLeafIndex(columns, instanceIndex, missingValue);
+			bestGeneratedTime = Math.min(bestGeneratedTime, System.nanoTime() - start);
+			
+			mismatches[0] = 0;
+			for(int instanceIndex = 0; instanceIndex < compiledLeafIndexes.length; instanceIndex++)
+				if(compiledLeafIndexes[instanceIndex] != generatedLeafIndexes[instanceIndex])
+					mismatches[0]++;
+		}
+		return bestGeneratedTime;
+	}
+	
+	private static double[][] readLineSplit(String path, String missingValueString, double missingValue)
+	{
+		try
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(path));
+			int numberOfAttributes = reader.readLine().split(",").length;
+			ArrayList<double[]> values = new ArrayList<double[]>();
+			String line = reader.readLine();
+			while(line != null)
+			{
+				String[] lineSplit = line.split(",");
+				double[] instance = new double[numberOfAttributes];
+				for(int attributeIndex = 0; attributeIndex < numberOfAttributes; attributeIndex++)
+				{
+					String value = lineSplit[attributeIndex].trim();
+					if(value.equals(missingValueString))
+						instance[attributeIndex] = missingValue;
+					else
+						instance[attributeIndex] = Double.parseDouble(value);
+				}
+				values.add(instance);
+				line = reader.readLine();
+			}
+			reader.close();
+			return values.toArray(new double[values.size()][]);
+		}
+		catch(Exception e)
+		{
+			System.out.println("Error reading dataset from CSV file " + path);
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	private static long usedMemory()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
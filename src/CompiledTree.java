@@ -0,0 +1,346 @@
+import java.util.Arrays;
+
+/*
+ * Decision tree flattened into arrays of primitives for prediction
+ *
+ * Node n tests attribute attributeIndexes[n], instances with values up to thresholds[n] go to leftChildren[n], other
+ * instances go to rightChildren[n] and instances with missing values go to missingChildren[n]
+ * A child is either a node index or ~leafIndex for a leaf, so a walk ends at the first negative child
+ */
+public class CompiledTree {
+	
+	private int[] attributeIndexes;
+	private double[] thresholds;
+	private int[] leftChildren;
+	private int[] rightChildren;
+	private int[] missingChildren;
+	private double[] leafPredictions;
+	
+	// First child of the walk, ~leafIndex if the tree is a single leaf
+	private int root;
+	private int size;
+	
+	// Number of instances routed down the tree together by the batch predictions
+	private static final int BLOCK_SIZE = 4096;
+	
+	// Class generated from the nodes by generatePredictor, used for batch prediction on columnar datasets
+	private TreePredictor predictor;
+	
+	// Most split nodes of a tree generatePredictor generates a class for, trees of 511 and more split nodes predicted slower through
+	// the class than by routing blocks in the CompiledInference benchmark, up to 9 times slower at 5008 split nodes
+	public static final int MAX_GENERATED_SIZE = 255;
+	
+	/*
+	 * Creates an empty tree, nodes are added with addNodes and setNode
+	 */
+	public CompiledTree(double[] leafPredictions)
+	{
+		this(new int[0], new double[0], new int[0], new int[0], new int[0], ~0, leafPredictions);
+	}
+	
+	public CompiledTree(int[] attributeIndexes, double[] thresholds, int[] leftChildren, int[] rightChildren, int[] missingChildren, int root, double[] leafPredictions)
+	{
+		this.attributeIndexes = attributeIndexes;
+		this.thresholds = thresholds;
+		this.leftChildren = leftChildren;
+		this.rightChildren = rightChildren;
+		this.missingChildren = missingChildren;
+		this.root = root;
+		this.leafPredictions = leafPredictions;
+		this.size = attributeIndexes.length;
+	}
+	
+	/*
+	 * Adds nodes to the end of the tree, returns the index of the first one
+	 */
+	public int addNodes(int numberOfNodes)
+	{
+		predictor = null;
+		int firstNodeIndex = size;
+		size += numberOfNodes;
+		if(size > attributeIndexes.length)
+		{
+			int capacity = Math.max(size, attributeIndexes.length * 2);
+			attributeIndexes = Arrays.copyOf(attributeIndexes, capacity);
+			thresholds = Arrays.copyOf(thresholds, capacity);
+			leftChildren = Arrays.copyOf(leftChildren, capacity);
+			rightChildren = Arrays.copyOf(rightChildren, capacity);
+			missingChildren = Arrays.copyOf(missingChildren, capacity);
+		}
+		return firstNodeIndex;
+	}
+	
+	public void setNode(int node, int attributeIndex, double threshold, int leftChild, int rightChild, int missingChild)
+	{
+		predictor = null;
+		attributeIndexes[node] = attributeIndex;
+		thresholds[node] = threshold;
+		leftChildren[node] = leftChild;
+		rightChildren[node] = rightChild;
+		missingChildren[node] = missingChild;
+	}
+	
+	public void setRoot(int root)
+	{
+		predictor = null;
+		this.root = root;
+	}
+	
+	/*
+	 * Releases the spare capacity left by addNodes
+	 */
+	public void trim()
+	{
+		attributeIndexes = Arrays.copyOf(attributeIndexes, size);
+		thresholds = Arrays.copyOf(thresholds, size);
+		leftChildren = Arrays.copyOf(leftChildren, size);
+		rightChildren = Arrays.copyOf(rightChildren, size);
+		missingChildren = Arrays.copyOf(missingChildren, size);
+	}
+	
+	public int predictAsLeafIndex(Dataset dataset, int instanceIndex)
+	{
+		double missingValue = dataset.getMissingValue();
+		int node = root;
+		while(node >= 0)
+		{
+			double value = dataset.getValue(instanceIndex, attributeIndexes[node]);
+			if(value == missingValue)
+				node = missingChildren[node];
+			else if(value <= thresholds[node])
+				node = leftChildren[node];
+			else
+				node = rightChildren[node];
+		}
+		return ~node;
+	}
+	
+	/*
+	 * Instances outside of the subset get a leaf index of 0, a null subset predicts all instances
+	 */
+	public int[] predictAsLeafIndexes(Dataset dataset, double[] subset)
+	{
+		int[] instanceIndexes = Util.nonZeroIndexes(subset, dataset.getNumberOfInstances());
+		int[] memberLeafIndexes = new int[instanceIndexes.length];
+		predictAsLeafIndexes(dataset, instanceIndexes, instanceIndexes.length, memberLeafIndexes);
+		
+		int[] leafIndexes = new int[dataset.getNumberOfInstances()];
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
+			leafIndexes[instanceIndexes[memberIndex]] = memberLeafIndexes[memberIndex];
+		return leafIndexes;
+	}
+	
+	/*
+	 * Writes the leaf index of instance instanceIndexes[i] to leafIndexes[i] for the first numberOfInstances instances
+	 */
+	public void predictAsLeafIndexes(Dataset dataset, int[] instanceIndexes, int numberOfInstances, int[] leafIndexes)
+	{
+		if(predictor != null && dataset.isColumnar())
+		{
+			double[][] columns = getColumns(dataset);
+			double missingValue = dataset.getMissingValue();
+			for(int index = 0; index < numberOfInstances; index++)
+				leafIndexes[index] = predictor.predictAsLeafIndex(columns, instanceIndexes[index], missingValue);
+			return;
+		}
+		routeBlocks(dataset, instanceIndexes, numberOfInstances, leafIndexes, null);
+	}
+	
+	/*
+	 * Writes the prediction of instance instanceIndexes[i] to predictions[i] for the first numberOfInstances instances
+	 */
+	public void predict(Dataset dataset, int[] instanceIndexes, int numberOfInstances, double[] predictions)
+	{
+		if(predictor != null && dataset.isColumnar())
+		{
+			double[][] columns = getColumns(dataset);
+			double missingValue = dataset.getMissingValue();
+			for(int index = 0; index < numberOfInstances; index++)
+				predictions[index] = leafPredictions[predictor.predictAsLeafIndex(columns, instanceIndexes[index], missingValue)];
+			return;
+		}
+		routeBlocks(dataset, instanceIndexes, numberOfInstances, null, predictions);
+	}
+	
+	/*
+	 * Routes blocks of instances down the tree, each node splitting the segment of the block that reaches it into the segments of its children
+	 * Segments are kept as the positions of their instances in instanceIndexes, and reaching a leaf writes the leaf index or prediction of each position
+	 */
+	private void routeBlocks(Dataset dataset, int[] instanceIndexes, int numberOfInstances, int[] leafIndexes, double[] predictions)
+	{
+		double[][] columns = dataset.isColumnar() ? getColumns(dataset) : null;
+		double missingValue = dataset.getMissingValue();
+		int[] positions = new int[Math.min(numberOfInstances, BLOCK_SIZE)];
+		int[] rightPositions = new int[positions.length];
+		
+		// Segments still to be routed, as triples of node, start and end
+		int[] segments = new int[3 * 64];
+		
+		for(int blockStart = 0; blockStart < numberOfInstances; blockStart += BLOCK_SIZE)
+		{
+			int blockSize = Math.min(BLOCK_SIZE, numberOfInstances - blockStart);
+			for(int position = 0; position < blockSize; position++)
+				positions[position] = blockStart + position;
+			segments[0] = root;
+			segments[1] = 0;
+			segments[2] = blockSize;
+			int numberOfSegments = 1;
+			
+			while(numberOfSegments > 0)
+			{
+				numberOfSegments--;
+				int node = segments[3 * numberOfSegments];
+				int start = segments[3 * numberOfSegments + 1];
+				int end = segments[3 * numberOfSegments + 2];
+				
+				if(node < 0)
+				{
+					if(leafIndexes != null)
+						for(int position = start; position < end; position++)
+							leafIndexes[positions[position]] = ~node;
+					else
+						for(int position = start; position < end; position++)
+							predictions[positions[position]] = leafPredictions[~node];
+					continue;
+				}
+				
+				int attributeIndex = attributeIndexes[node];
+				double[] column = columns == null ? null : columns[attributeIndex];
+				double threshold = thresholds[node];
+				int leftEnd = start;
+				int missingEnd = start;
+				int rightStart = end;
+				if(missingChildren[node] == leftChildren[node] || missingChildren[node] == rightChildren[node])
+				{
+					// Each position is written to both sides and only the counter of its side advances, which avoids unpredictable branches
+					boolean missingLeft = missingChildren[node] == leftChildren[node];
+					int numberOfRight = 0;
+					for(int position = start; position < end; position++)
+					{
+						int instancePosition = positions[position];
+						int instanceIndex = instanceIndexes[instancePosition];
+						double value = column == null ? dataset.getValue(instanceIndex, attributeIndex) : column[instanceIndex];
+						boolean left = value == missingValue ? missingLeft : value <= threshold;
+						positions[leftEnd] = instancePosition;
+						rightPositions[numberOfRight] = instancePosition;
+						leftEnd += left ? 1 : 0;
+						numberOfRight += left ? 0 : 1;
+					}
+					System.arraycopy(rightPositions, 0, positions, leftEnd, numberOfRight);
+					missingEnd = leftEnd;
+					rightStart = leftEnd;
+				}
+				else
+				{
+					// Partition the segment into left, missing and right instances
+					while(missingEnd < rightStart)
+					{
+						int instancePosition = positions[missingEnd];
+						int instanceIndex = instanceIndexes[instancePosition];
+						double value = column == null ? dataset.getValue(instanceIndex, attributeIndex) : column[instanceIndex];
+						if(value == missingValue)
+							missingEnd++;
+						else if(value <= threshold)
+						{
+							positions[missingEnd++] = positions[leftEnd];
+							positions[leftEnd++] = instancePosition;
+						}
+						else
+						{
+							positions[missingEnd] = positions[--rightStart];
+							positions[rightStart] = instancePosition;
+						}
+					}
+				}
+				
+				if(numberOfSegments * 3 + 9 > segments.length)
+					segments = Arrays.copyOf(segments, segments.length * 2);
+				numberOfSegments = pushSegment(segments, numberOfSegments, leftChildren[node], start, leftEnd);
+				numberOfSegments = pushSegment(segments, numberOfSegments, missingChildren[node], leftEnd, missingEnd);
+				numberOfSegments = pushSegment(segments, numberOfSegments, rightChildren[node], rightStart, end);
+			}
+		}
+	}
+	
+	private static int pushSegment(int[] segments, int numberOfSegments, int node, int start, int end)
+	{
+		if(start == end)
+			return numberOfSegments;
+		segments[3 * numberOfSegments] = node;
+		segments[3 * numberOfSegments + 1] = start;
+		segments[3 * numberOfSegments + 2] = end;
+		return numberOfSegments + 1;
+	}
+	
+	/*
+	 * Columns of the attributes tested by the tree, the others are left null
+	 */
+	private double[][] getColumns(Dataset dataset)
+	{
+		double[][] columns = new double[dataset.getNumberOfAttributes()][];
+		for(int node = 0; node < size; node++)
+			if(columns[attributeIndexes[node]] == null)
+				columns[attributeIndexes[node]] = dataset.getAttributeValues(attributeIndexes[node]);
+		return columns;
+	}
+	
+	/*
+	 * Generates a class hard-coding the nodes as branches, through which batch predictions on columnar datasets are then made
+	 * Returns the generated predictor, or null, and blocks are still routed, if the tree has more than MAX_GENERATED_SIZE split nodes or is too large for a class
+	 */
+	public TreePredictor generatePredictor()
+	{
+		predictor = null;
+		if(size <= MAX_GENERATED_SIZE)
+			predictor = TreePredictorGenerator.generate(this);
+		return predictor;
+	}
+	
+	/*
+	 * Returns the predictor batch predictions are made through, or null if blocks are routed
+	 */
+	public TreePredictor getPredictor()
+	{
+		return predictor;
+	}
+	
+	public double predict(Dataset dataset, int instanceIndex)
+	{
+		return leafPredictions[predictAsLeafIndex(dataset, instanceIndex)];
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public int getRoot()
+	{
+		return root;
+	}
+	
+	public int getAttributeIndex(int node)
+	{
+		return attributeIndexes[node];
+	}
+	
+	public double getThreshold(int node)
+	{
+		return thresholds[node];
+	}
+	
+	public int getLeftChild(int node)
+	{
+		return leftChildren[node];
+	}
+	
+	public int getRightChild(int node)
+	{
+		return rightChildren[node];
+	}
+	
+	public int getMissingChild(int node)
+	{
+		return missingChildren[node];
+	}
+}
@@ -2,27 +2,27 @@ import java.util.Arrays;
 
 public class DataPreparator {
 	
-	public static double[] oversampleClasses(double[] subset, double[] classValues, double[] uniqueClassValues)
+	public static double[] oversampleClasses(double[] subset, int[] classIndexes, int numberOfClasses)
 	{
 		if(subset == null)
-			subset = Util.fill(1.0, classValues.length);
-		double[] classSums = new double[uniqueClassValues.length];
-		for(int classValueIndex = 0; classValueIndex < classValues.length; classValueIndex++)
-			classSums[Util.indexOf(classValues[classValueIndex], uniqueClassValues)] += subset[classValueIndex];
+			subset = Util.fill(1.0, classIndexes.length);
+		double[] classSums = new double[numberOfClasses];
+		for(int classValueIndex = 0; classValueIndex < classIndexes.length; classValueIndex++)
+			classSums[classIndexes[classValueIndex]] += subset[classValueIndex];
 		
 		double[] multipliers = new double[classSums.length];
 		double maxClassCount = Arrays.stream(classSums).max().getAsDouble();
 		
-		for(int classIndex = 0; classIndex < uniqueClassValues.length; classIndex++)
+		for(int classIndex = 0; classIndex < numberOfClasses; classIndex++)
 		{
 			multipliers[classIndex] = maxClassCount / classSums[classIndex];
 		}
 		
 		double[] newSubset = new double[subset.length];
 		
-		for(int classValueIndex = 0; classValueIndex < classValues.length; classValueIndex++)
+		for(int classValueIndex = 0; classValueIndex < classIndexes.length; classValueIndex++)
 		{
-			newSubset[classValueIndex] = subset[classValueIndex] * (multipliers[Util.indexOf(classValues[classValueIndex], uniqueClassValues)]);
+			newSubset[classValueIndex] = subset[classValueIndex] * (multipliers[classIndexes[classValueIndex]]);
 		}
 		
 		return newSubset;
@@ -1,14 +1,47 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Dataset {
 	
+	// Reading variables
+	private static final int CSV_BUFFER_SIZE = 1 << 16;
+	private static final int CSV_CHUNK_SIZE = 1 << 14;
+	private static final int BINARY_MAGIC = 0x4E544453;
+	private static final int BINARY_VERSION = 2;
+	// Quantisation variables
+	public static final int DEFAULT_NUMBER_OF_BINS = 255;
+	public static final int MISSING_BIN = 255;
+	
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	
 	// Data variables
 	private double[][] values;
+	private double[][] columns;
 	private String[] attributeNames;
+	private int numberOfInstances;
+	
+	// Storage variables
+	// In columnar mode the values are kept as one array per attribute (columns[attributeIndex][instanceIndex])
+	// and the row-major values array is not used
+	private boolean columnar;
 	
 	// Data format variables
 	private String idAttributeName;
@@ -18,12 +51,22 @@ public class Dataset {
 	private String missingValueString;
 	private double missingValue = Double.MAX_VALUE;
 	
+	// Source variables, the CSV file the dataset was read from as it was when it was read
+	private String sourcePath;
+	private long sourceLength;
+	private long sourceLastModified;
+	
 	// Optimisation variables
 	private boolean preSorted;
-	private double[][][] preSortedValues;
 	private int[][] originalToSortedIndexes;
 	private int[][] sortedToOriginalIndexes;
+	private double[][] sortedAttributeValues;
+	private int[][] sortedClassIndexes;
 	private double[] uniqueClassValues;
+	private int[] classIndexes;
+	private boolean quantised;
+	private byte[][] binnedAttributeValues;
+	private double[][] binUpperValues;
 	
 	// Longitudinal variables
 	private boolean[][] longitudinalAttributes;
@@ -36,7 +79,83 @@ public class Dataset {
 	
 	public void setValues(double[][] values)
 	{
-		this.values = values;
+		clearQuantisation();
+		this.numberOfInstances = values.length;
+		if(columnar)
+		{
+			this.columns = transposeToColumns(values);
+			this.values = null;
+		}
+		else
+			this.values = values;
+	}
+	
+	public void setColumns(double[][] columns)
+	{
+		clearQuantisation();
+		this.numberOfInstances = columns.length == 0 ? 0 : columns[0].length;
+		if(columnar)
+			this.columns = columns;
+		else
+			this.values = transposeToRows(columns);
+	}
+	
+	/*
+	 * Switches between row-major and column-major storage, converting any values already loaded
+	 * Column-major storage lets getAttributeValues and getClassValues return the stored columns without copying
+	 */
+	public void setColumnar(boolean newColumnar)
+	{
+		if(columnar == newColumnar)
+			return;
+		if(newColumnar && values != null)
+		{
+			columns = transposeToColumns(values);
+			values = null;
+		}
+		else if(!newColumnar && columns != null)
+		{
+			values = transposeToRows(columns);
+			columns = null;
+		}
+		columnar = newColumnar;
+	}
+	
+	public boolean isColumnar()
+	{
+		return columnar;
+	}
+	
+	private double[][] transposeToColumns(double[][] rows)
+	{
+		double[][] newColumns = new double[attributeNames.length][];
+		for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+		{
+			newColumns[attributeIndex] = new double[rows.length];
+			for(int instanceIndex = 0; instanceIndex < rows.length; instanceIndex++)
+				newColumns[attributeIndex][instanceIndex] = rows[instanceIndex][attributeIndex];
+		}
+		return newColumns;
+	}
+	
+	private double[][] transposeToRows(double[][] columns)
+	{
+		double[][] rows = new double[numberOfInstances][];
+		for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+		{
+			rows[instanceIndex] = new double[columns.length];
+			for(int attributeIndex = 0; attributeIndex < columns.length; attributeIndex++)
+				rows[instanceIndex][attributeIndex] = columns[attributeIndex][instanceIndex];
+		}
+		return rows;
+	}
+	
+	// Returns the values as rows, building them from the columns if the dataset is columnar
+	private double[][] getRows()
+	{
+		if(columnar)
+			return transposeToRows(columns);
+		return values;
 	}
 	
 	public void setAttributeNames(String[] attributeNames)
@@ -46,6 +165,8 @@ public class Dataset {
 	
 	public double getValue(int instanceIndex, int attributeIndex)
 	{
+		if(columnar)
+			return columns[attributeIndex][instanceIndex];
 		return values[instanceIndex][attributeIndex];
 	}
 	
@@ -92,6 +213,12 @@ public class Dataset {
 			}
 		if(!found)
 			System.out.println("WARNING: Class attribute " + newClassAttributeName + " was not present in the dataset");
+		
+		// Class values of the previous class attribute no longer apply, this also re-orders the class indexes cached by preSort
+		uniqueClassValues = null;
+		classIndexes = null;
+		if(preSorted)
+			initialiseUniqueClassValues();
 	}
 	
 	public int getClassAttributeIndex()
@@ -111,51 +238,123 @@ public class Dataset {
 	
 	public int getNumberOfInstances()
 	{
-		return values.length;
+		return numberOfInstances;
 	}
 	
 	public void readFromCSV(String path)
 	{
 		try
 		{
-			// Initialise buffered reader
-			BufferedReader reader = new BufferedReader(new FileReader(path));
+			// Initialise buffered byte stream
+			InputStream stream = new BufferedInputStream(new FileInputStream(path), CSV_BUFFER_SIZE);
 			
 			// Read the attribute names
-			String line = reader.readLine();
-			String[] atrributeNamesSplit = line.split(",");
+			byte[] cell = new byte[64];
+			int cellLength = 0;
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			int nextByte = stream.read();
+			while(nextByte != -1 && nextByte != '\n')
+			{
+				header.write(nextByte);
+				nextByte = stream.read();
+			}
+			String[] atrributeNamesSplit = header.toString("UTF-8").split(",");
 			attributeNames = new String[atrributeNamesSplit.length];
 			for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
 				attributeNames[attributeIndex] = atrributeNamesSplit[attributeIndex].trim();
 			
-			// Read raw values
-			ArrayList<String> valuesStrings = new ArrayList<String>();
+			// Cells are UTF-8, non-ASCII bytes are kept and decoded along with the rest of the cell
+			byte[] missingValueBytes = missingValueString == null ? null : missingValueString.getBytes(StandardCharsets.UTF_8);
+			
+			// Parse the values straight into column chunks of CSV_CHUNK_SIZE instances each
+			ArrayList<double[][]> chunks = new ArrayList<double[][]>();
+			double[][] chunk = null;
+			int chunkInstanceIndex = CSV_CHUNK_SIZE;
+			int attributeIndex = 0;
+			int instanceCount = 0;
 			
-			line = reader.readLine();
-			while(line != null)
+			byte[] buffer = new byte[CSV_BUFFER_SIZE];
+			int bufferLength = stream.read(buffer);
+			while(bufferLength != -1)
 			{
-				valuesStrings.add(line);
-				line = reader.readLine();
+				for(int bufferIndex = 0; bufferIndex < bufferLength; bufferIndex++)
+				{
+					byte b = buffer[bufferIndex];
+					if(b == ',' || b == '\n')
+					{
+						// Ignore empty lines
+						if(b == '\n' && attributeIndex == 0 && cellLength == 0)
+							continue;
+						
+						// Start a new chunk when the current one is full
+						if(attributeIndex == 0 && chunkInstanceIndex == CSV_CHUNK_SIZE)
+						{
+							chunk = new double[attributeNames.length][CSV_CHUNK_SIZE];
+							chunks.add(chunk);
+							chunkInstanceIndex = 0;
+						}
+						
+						// Values beyond the number of attributes are ignored
+						if(attributeIndex < attributeNames.length)
+							chunk[attributeIndex][chunkInstanceIndex] = parseCSVCell(cell, trimmedLength(cell, cellLength), missingValueBytes);
+						attributeIndex++;
+						cellLength = 0;
+						
+						if(b == '\n')
+						{
+							if(attributeIndex < attributeNames.length)
+								throw new IOException("Instance " + instanceCount + " has " + attributeIndex + " values, expected " + attributeNames.length);
+							attributeIndex = 0;
+							chunkInstanceIndex++;
+							instanceCount++;
+						}
+					}
+					else if(cellLength > 0 || (b & 0xFF) > ' ')
+					{
+						// Record the cell contents, leading whitespace is skipped and trailing whitespace is trimmed when the cell ends
+						if(cellLength == cell.length)
+							cell = Arrays.copyOf(cell, cell.length * 2);
+						cell[cellLength] = b;
+						cellLength++;
+					}
+				}
+				bufferLength = stream.read(buffer);
 			}
+			stream.close();
 			
-			// Store the values as doubles
-			values = new double[valuesStrings.size()][];
-			for(int instanceIndex = 0; instanceIndex < values.length; instanceIndex++)
+			// Finish the last instance if the file does not end with a new line
+			if(attributeIndex > 0 || cellLength > 0)
 			{
-				String instanceString = valuesStrings.get(instanceIndex);
-				String[] instanceStringSplit = instanceString.split(",");
-				values[instanceIndex] = new double[attributeNames.length]; 
-				for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+				if(attributeIndex == 0 && chunkInstanceIndex == CSV_CHUNK_SIZE)
 				{
-					instanceStringSplit[attributeIndex] = instanceStringSplit[attributeIndex].trim();
-					if(instanceStringSplit[attributeIndex].equals(missingValueString))
-						values[instanceIndex][attributeIndex] = missingValue;
-					else
-						values[instanceIndex][attributeIndex] = Double.parseDouble(instanceStringSplit[attributeIndex]);
+					chunk = new double[attributeNames.length][CSV_CHUNK_SIZE];
+					chunks.add(chunk);
+					chunkInstanceIndex = 0;
 				}
+				if(attributeIndex < attributeNames.length)
+					chunk[attributeIndex][chunkInstanceIndex] = parseCSVCell(cell, trimmedLength(cell, cellLength), missingValueBytes);
+				attributeIndex++;
+				if(attributeIndex < attributeNames.length)
+					throw new IOException("Instance " + instanceCount + " has " + attributeIndex + " values, expected " + attributeNames.length);
+				instanceCount++;
 			}
 			
-			reader.close();
+			// Join the chunks into columns
+			double[][] newColumns = new double[attributeNames.length][instanceCount];
+			for(int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++)
+			{
+				int chunkStart = chunkIndex * CSV_CHUNK_SIZE;
+				int chunkLength = Math.min(CSV_CHUNK_SIZE, instanceCount - chunkStart);
+				for(attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+					System.arraycopy(chunks.get(chunkIndex)[attributeIndex], 0, newColumns[attributeIndex], chunkStart, chunkLength);
+				chunks.set(chunkIndex, null);
+			}
+			setColumns(newColumns);
+			
+			File source = new File(path);
+			sourcePath = source.getAbsolutePath();
+			sourceLength = source.length();
+			sourceLastModified = source.lastModified();
 		}
 		catch(Exception e)
 		{
@@ -164,6 +363,83 @@ public class Dataset {
 		}
 	}
 	
+	/*
+	 * Length of the cell without its trailing whitespace, the bytes String.trim removes
+	 */
+	private static int trimmedLength(byte[] cell, int cellLength)
+	{
+		while(cellLength > 0 && (cell[cellLength - 1] & 0xFF) <= ' ')
+			cellLength--;
+		return cellLength;
+	}
+	
+	/*
+	 * Parses a trimmed CSV cell without creating a String
+	 * Plain decimals with up to 15 significant digits are converted exactly, anything else falls back to Double.parseDouble
+	 */
+	private double parseCSVCell(byte[] cell, int cellLength, byte[] missingValueBytes)
+	{
+		// Check for the missing value token
+		if(missingValueBytes != null && cellLength == missingValueBytes.length)
+		{
+			boolean missing = true;
+			for(int byteIndex = 0; byteIndex < cellLength; byteIndex++)
+				if(cell[byteIndex] != missingValueBytes[byteIndex])
+				{
+					missing = false;
+					break;
+				}
+			if(missing)
+				return missingValue;
+		}
+		
+		int byteIndex = 0;
+		boolean negative = false;
+		if(cellLength > 0 && (cell[0] == '-' || cell[0] == '+'))
+		{
+			negative = cell[0] == '-';
+			byteIndex++;
+		}
+		
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean digitFound = false;
+		boolean pointFound = false;
+		for(; byteIndex < cellLength; byteIndex++)
+		{
+			byte b = cell[byteIndex];
+			if(b >= '0' && b <= '9')
+			{
+				digitFound = true;
+				if(mantissa == 0 && b == '0')
+				{
+					// Leading zeros are not significant
+					if(pointFound)
+						exponent--;
+					continue;
+				}
+				if(digits == 15)
+					return Double.parseDouble(new String(cell, 0, cellLength, StandardCharsets.UTF_8));
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if(pointFound)
+					exponent--;
+			}
+			else if(b == '.' && !pointFound)
+				pointFound = true;
+			else
+				return Double.parseDouble(new String(cell, 0, cellLength, StandardCharsets.UTF_8));
+		}
+		if(!digitFound || exponent < -22)
+			return Double.parseDouble(new String(cell, 0, cellLength, StandardCharsets.UTF_8));
+		
+		double value = mantissa;
+		if(exponent < 0)
+			value = value / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+	
 	public void writeToCSV(String path)
 	{
 		FileWriter myWriter;
@@ -176,14 +452,14 @@ public class Dataset {
 				myWriter.write(attributeNames[attributeIndex]);
 				
 			}
-			for(int instanceIndex = 0; instanceIndex < this.values.length; instanceIndex++)
+			for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
 			{
 				myWriter.write("\n");
 				for(int attributeIndex = 0; attributeIndex < this.attributeNames.length; attributeIndex++)
 				{
 					if(attributeIndex > 0)
 						myWriter.write(", ");
-					myWriter.write("" + values[instanceIndex][attributeIndex]);
+					myWriter.write("" + getValue(instanceIndex, attributeIndex));
 					
 				}
 			}
@@ -195,6 +471,257 @@ public class Dataset {
 		}
 	}
 	
+	/*
+	 * Binary format (little-endian):
+	 * header - magic, version, header length, number of attributes, number of instances, id and class attribute indexes,
+	 *          flags, missing value, source file length and modification time, missing value string, id and class attribute names,
+	 *          source file path, attribute names and unique class values, padded to a multiple of 8 bytes
+	 * columns - one double column per attribute
+	 * permutations - one int sortedToOriginal permutation per attribute, only present if the dataset was pre-sorted
+	 */
+	public void writeToBinary(String path)
+	{
+		try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			// Encode the strings and calculate the header length
+			byte[][] strings = new byte[4 + attributeNames.length][];
+			strings[0] = encodeBinaryString(missingValueString);
+			strings[1] = encodeBinaryString(idAttributeName);
+			strings[2] = encodeBinaryString(classAttributeName);
+			strings[3] = encodeBinaryString(sourcePath);
+			for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+				strings[4 + attributeIndex] = encodeBinaryString(attributeNames[attributeIndex]);
+			
+			int headerLength = 9 * 4 + 3 * 8;
+			for(byte[] string : strings)
+				headerLength += 4 + (string == null ? 0 : string.length);
+			if(uniqueClassValues != null)
+				headerLength += 8 * uniqueClassValues.length;
+			headerLength = (headerLength + 7) / 8 * 8;
+			
+			// Write the header
+			ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(BINARY_MAGIC);
+			header.putInt(BINARY_VERSION);
+			header.putInt(headerLength);
+			header.putInt(attributeNames.length);
+			header.putInt(numberOfInstances);
+			header.putInt(idAttributeIndex);
+			header.putInt(classAttributeIndex);
+			header.putInt(preSorted ? 1 : 0);
+			header.putInt(uniqueClassValues == null ? -1 : uniqueClassValues.length);
+			header.putDouble(missingValue);
+			header.putLong(sourceLength);
+			header.putLong(sourceLastModified);
+			for(byte[] string : strings)
+			{
+				if(string == null)
+					header.putInt(-1);
+				else
+				{
+					header.putInt(string.length);
+					header.put(string);
+				}
+			}
+			if(uniqueClassValues != null)
+				for(double uniqueClassValue : uniqueClassValues)
+					header.putDouble(uniqueClassValue);
+			header.rewind();
+			writeFully(channel, header);
+			
+			// Write the columns and the pre-sorted permutations
+			ByteBuffer buffer = ByteBuffer.allocate(8 * numberOfInstances).order(ByteOrder.LITTLE_ENDIAN);
+			for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+			{
+				buffer.clear();
+				buffer.asDoubleBuffer().put(getAttributeValues(attributeIndex));
+				buffer.limit(8 * numberOfInstances);
+				writeFully(channel, buffer);
+			}
+			if(preSorted)
+				for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+				{
+					buffer.clear();
+					buffer.asIntBuffer().put(sortedToOriginalIndexes[attributeIndex]);
+					buffer.limit(4 * numberOfInstances);
+					writeFully(channel, buffer);
+				}
+		}
+		catch(IOException e)
+		{
+			System.out.println("Failed to write to " + path);
+			e.printStackTrace();
+		}
+	}
+	
+	/*
+	 * Reads a dataset written by writeToBinary by memory-mapping the file
+	 * The pre-sorted permutations are restored as well, so preSort does not need to be called again
+	 * Returns false if the file cannot be read or is not a complete binary dataset file, the dataset is then left empty
+	 */
+	public boolean readFromBinary(String path)
+	{
+		try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			// Read the header
+			if(channel.size() < 12)
+				throw new IOException("Not a binary dataset file");
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 12).order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt() != BINARY_MAGIC)
+				throw new IOException("Not a binary dataset file");
+			int version = header.getInt();
+			if(version != BINARY_VERSION)
+				throw new IOException("Unsupported binary dataset version " + version);
+			int headerLength = header.getInt();
+			if(headerLength < 12 || headerLength > channel.size())
+				throw new IOException("Invalid header length " + headerLength);
+			
+			header = channel.map(FileChannel.MapMode.READ_ONLY, 12, headerLength - 12).order(ByteOrder.LITTLE_ENDIAN);
+			int numberOfAttributes = header.getInt();
+			numberOfInstances = header.getInt();
+			idAttributeIndex = header.getInt();
+			classAttributeIndex = header.getInt();
+			boolean filePreSorted = header.getInt() == 1;
+			int numberOfUniqueClassValues = header.getInt();
+			missingValue = header.getDouble();
+			sourceLength = header.getLong();
+			sourceLastModified = header.getLong();
+			missingValueString = decodeBinaryString(header);
+			idAttributeName = decodeBinaryString(header);
+			classAttributeName = decodeBinaryString(header);
+			sourcePath = decodeBinaryString(header);
+			
+			// Truncated files are rejected before any of their columns are read
+			long fileLength = headerLength + (filePreSorted ? 12l : 8l) * numberOfAttributes * numberOfInstances;
+			if(numberOfAttributes < 0 || numberOfInstances < 0 || channel.size() != fileLength)
+				throw new IOException("Binary dataset file has " + channel.size() + " bytes, expected " + fileLength);
+			
+			attributeNames = new String[numberOfAttributes];
+			for(int attributeIndex = 0; attributeIndex < numberOfAttributes; attributeIndex++)
+				attributeNames[attributeIndex] = decodeBinaryString(header);
+			uniqueClassValues = null;
+			classIndexes = null;
+			if(numberOfUniqueClassValues != -1)
+			{
+				uniqueClassValues = new double[numberOfUniqueClassValues];
+				header.asDoubleBuffer().get(uniqueClassValues);
+			}
+			
+			// Read the columns
+			long position = headerLength;
+			double[][] newColumns = new double[numberOfAttributes][numberOfInstances];
+			for(int attributeIndex = 0; attributeIndex < numberOfAttributes; attributeIndex++)
+			{
+				channel.map(FileChannel.MapMode.READ_ONLY, position, 8l * numberOfInstances).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(newColumns[attributeIndex]);
+				position += 8l * numberOfInstances;
+			}
+			setColumns(newColumns);
+			
+			// Read the pre-sorted permutations and rebuild their inverses
+			preSorted = false;
+			if(filePreSorted)
+			{
+				sortedToOriginalIndexes = new int[numberOfAttributes][numberOfInstances];
+				originalToSortedIndexes = new int[numberOfAttributes][numberOfInstances];
+				sortedAttributeValues = new double[numberOfAttributes][];
+				sortedClassIndexes = new int[numberOfAttributes][];
+				int[] classIndexes = getClassIndexes();
+				for(int attributeIndex = 0; attributeIndex < numberOfAttributes; attributeIndex++)
+				{
+					channel.map(FileChannel.MapMode.READ_ONLY, position, 4l * numberOfInstances).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(sortedToOriginalIndexes[attributeIndex]);
+					position += 4l * numberOfInstances;
+					Arrays.fill(originalToSortedIndexes[attributeIndex], -1);
+					for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+					{
+						int originalIndex = sortedToOriginalIndexes[attributeIndex][instanceIndex];
+						if(originalIndex < 0 || originalIndex >= numberOfInstances || originalToSortedIndexes[attributeIndex][originalIndex] != -1)
+							throw new IOException("Sorted order of attribute " + attributeIndex + " is not a permutation");
+						originalToSortedIndexes[attributeIndex][originalIndex] = instanceIndex;
+					}
+					initialiseSortedValues(attributeIndex, classIndexes);
+				}
+				preSorted = true;
+			}
+			return true;
+		}
+		catch(Exception e)
+		{
+			System.out.println("Error reading dataset from binary file " + path);
+			e.printStackTrace();
+			clear();
+			return false;
+		}
+	}
+	
+	/*
+	 * Drops the values and everything derived from them, as after a failed read
+	 */
+	private void clear()
+	{
+		values = null;
+		columns = null;
+		attributeNames = null;
+		numberOfInstances = 0;
+		idAttributeName = null;
+		classAttributeName = null;
+		sourcePath = null;
+		preSorted = false;
+		originalToSortedIndexes = null;
+		sortedToOriginalIndexes = null;
+		sortedAttributeValues = null;
+		sortedClassIndexes = null;
+		uniqueClassValues = null;
+		classIndexes = null;
+		clearQuantisation();
+	}
+	
+	/*
+	 * Bins of values no longer loaded, the dataset has to be quantised again for histogram split search
+	 */
+	private void clearQuantisation()
+	{
+		quantised = false;
+		binnedAttributeValues = null;
+		binUpperValues = null;
+	}
+	
+	/*
+	 * True if the dataset was read from the CSV file at the path as the file is now, with the given id and class attributes
+	 * and missing value string, a binary copy of the dataset that does not match its source is stale
+	 */
+	public boolean matchesSource(String path, String idAttributeName, String classAttributeName, String missingValueString)
+	{
+		File source = new File(path);
+		return sourcePath != null && sourcePath.equals(source.getAbsolutePath())
+				&& sourceLength == source.length() && sourceLastModified == source.lastModified()
+				&& Objects.equals(this.idAttributeName, idAttributeName)
+				&& Objects.equals(this.classAttributeName, classAttributeName)
+				&& Objects.equals(this.missingValueString, missingValueString);
+	}
+	
+	private static byte[] encodeBinaryString(String string)
+	{
+		if(string == null)
+			return null;
+		return string.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private static String decodeBinaryString(ByteBuffer buffer)
+	{
+		int length = buffer.getInt();
+		if(length == -1)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+	
 	public void setMissingValueString(String newMissingValueString)
 	{
 		missingValueString = newMissingValueString;
@@ -212,30 +739,152 @@ public class Dataset {
 	
 	public void preSort()
 	{
+		preSort(1);
+	}
+	
+	/*
+	 * Pre-sorts the attributes on a fork-join pool with the given parallelism
+	 * Each attribute is sorted and its inverse index built by a separate task
+	 */
+	public void preSort(int parallelism)
+	{
+		// Class indexes are read before the caches are replaced, as initialising them re-orders the cached ones
+		int[] classIndexes = getClassIndexes();
+		
 		// Initialise index conversion sets
-		preSortedValues = new double[attributeNames.length][][];
 		originalToSortedIndexes = new int[attributeNames.length][];
 		sortedToOriginalIndexes = new int[attributeNames.length][];
+		sortedAttributeValues = new double[attributeNames.length][];
+		sortedClassIndexes = new int[attributeNames.length][];
 		
-		for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+		if(parallelism <= 1)
 		{
-			sortedToOriginalIndexes[attributeIndex] = new int[values.length];
-			for(int instanceIndex = 0; instanceIndex < values.length; instanceIndex++)
-				sortedToOriginalIndexes[attributeIndex][instanceIndex] = instanceIndex;
-			this.preSortedValues[attributeIndex] = Quicksort.sort25(values.clone(), sortedToOriginalIndexes[attributeIndex], attributeIndex);
-			originalToSortedIndexes[attributeIndex] = new int[values.length];
-			for(int instanceIndex = 0; instanceIndex < values.length; instanceIndex++)
-				originalToSortedIndexes[attributeIndex][sortedToOriginalIndexes[attributeIndex][instanceIndex]] = instanceIndex;
+			for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+				preSortAttribute(attributeIndex, classIndexes);
+		}
+		else
+		{
+			ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+			{
+				int taskAttributeIndex = attributeIndex;
+				tasks.add(() -> {
+					preSortAttribute(taskAttributeIndex, classIndexes);
+					return null;
+				});
+			}
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				for(Future<Object> result : pool.invokeAll(tasks))
+					result.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new RuntimeException("Parallel pre-sort failed", e);
+			} finally {
+				pool.shutdown();
+			}
 		}
 		
 		this.preSorted = true;
 	}
 	
+	private void preSortAttribute(int attributeIndex, int[] classIndexes)
+	{
+		int[] sortedToOriginal = Quicksort.sortIndexes(getAttributeValues(attributeIndex));
+		int[] originalToSorted = new int[numberOfInstances];
+		for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+			originalToSorted[sortedToOriginal[instanceIndex]] = instanceIndex;
+		sortedToOriginalIndexes[attributeIndex] = sortedToOriginal;
+		originalToSortedIndexes[attributeIndex] = originalToSorted;
+		initialiseSortedValues(attributeIndex, classIndexes);
+	}
+	
+	// Caches the attribute values and the class indexes in the order of the attribute
+	private void initialiseSortedValues(int attributeIndex, int[] classIndexes)
+	{
+		double[] attributeValues = getAttributeValues(attributeIndex);
+		int[] sortedToOriginal = sortedToOriginalIndexes[attributeIndex];
+		double[] sortedAttribute = new double[numberOfInstances];
+		int[] sortedClass = new int[numberOfInstances];
+		for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+		{
+			sortedAttribute[instanceIndex] = attributeValues[sortedToOriginal[instanceIndex]];
+			sortedClass[instanceIndex] = classIndexes[sortedToOriginal[instanceIndex]];
+		}
+		sortedAttributeValues[attributeIndex] = sortedAttribute;
+		sortedClassIndexes[attributeIndex] = sortedClass;
+	}
+	
 	public boolean preSorted()
 	{
 		return preSorted;
 	}
 	
+	/*
+	 * Quantises each attribute into at most numberOfBins bins holding roughly equal numbers of instances, stored as one byte per value
+	 * Equal values always share a bin and missing values are stored as MISSING_BIN
+	 * The upper value of a bin is the highest attribute value in it
+	 */
+	public void quantise(int numberOfBins)
+	{
+		if(!preSorted)
+			preSort();
+		numberOfBins = Math.max(2, Math.min(numberOfBins, MISSING_BIN));
+		binnedAttributeValues = new byte[attributeNames.length][];
+		binUpperValues = new double[attributeNames.length][];
+		
+		for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+		{
+			double[] sortedValues = sortedAttributeValues[attributeIndex];
+			int[] sortedToOriginal = sortedToOriginalIndexes[attributeIndex];
+			int numberOfValues = 0;
+			for(double value : sortedValues)
+				if(value != missingValue)
+					numberOfValues++;
+			
+			byte[] binnedValues = new byte[numberOfInstances];
+			double[] upperValues = new double[numberOfBins];
+			int bin = -1;
+			int position = 0;
+			for(int sortedIndex = 0; sortedIndex < numberOfInstances; sortedIndex++)
+			{
+				double value = sortedValues[sortedIndex];
+				if(value == missingValue)
+				{
+					binnedValues[sortedToOriginal[sortedIndex]] = (byte)MISSING_BIN;
+					continue;
+				}
+				// Move to the next bin when a new value is reached and the current bin holds its share of the values
+				if(bin == -1 || (value != upperValues[bin] && bin < numberOfBins - 1 && (long)position * numberOfBins >= (long)(bin + 1) * numberOfValues))
+					bin++;
+				binnedValues[sortedToOriginal[sortedIndex]] = (byte)bin;
+				upperValues[bin] = value;
+				position++;
+			}
+			binnedAttributeValues[attributeIndex] = binnedValues;
+			binUpperValues[attributeIndex] = Arrays.copyOf(upperValues, bin + 1);
+		}
+		
+		this.quantised = true;
+	}
+	
+	public boolean quantised()
+	{
+		return quantised;
+	}
+	
+	/*
+	 * Bins of the attribute values of each instance, to be read as (value & 0xFF)
+	 */
+	public byte[] getBinnedAttributeValues(int attributeIndex)
+	{
+		return binnedAttributeValues[attributeIndex];
+	}
+	
+	public double[] getBinUpperValues(int attributeIndex)
+	{
+		return binUpperValues[attributeIndex];
+	}
+	
 	public void printDataset()
 	{
 		printDataset(null);
@@ -243,7 +892,7 @@ public class Dataset {
 	
 	public void printDataset(double[] subset)
 	{
-		printDataset(values, subset);
+		printDataset(getRows(), subset);
 	}
 	
 	public void printSortedDataset(int attributeIndex)
@@ -256,6 +905,7 @@ public class Dataset {
 		if(!preSorted)
 			preSort();
 		
+		double[][] values = getRows();
 		double[][] valuesSortedByAttribute = new double[values.length][];
 		for(int instanceIndex = 0; instanceIndex < values.length; instanceIndex++)
 		{
@@ -352,8 +1002,14 @@ public class Dataset {
 		return getAttributeValues(classAttributeIndex);
 	}
 	
+	/*
+	 * In columnar mode the stored column is returned without copying, so it must be treated as read-only
+	 * In row mode a new array is built on each call
+	 */
 	public double[] getAttributeValues(int attributeIndex)
 	{
+		if(columnar)
+			return columns[attributeIndex];
 		double[] attributeValues = new double[values.length];
 		for(int instanceIndex = 0; instanceIndex < values.length; instanceIndex++)
 		{
@@ -362,6 +1018,30 @@ public class Dataset {
 		return attributeValues;
 	}
 	
+	/*
+	 * The following three methods return arrays cached by preSort, indexed by the position in the order of the given attribute
+	 * They, and the original to sorted index mapping below them, are shared and must be treated as read-only
+	 */
+	public double[] getSortedAttributeValues(int attributeIndex)
+	{
+		return sortedAttributeValues[attributeIndex];
+	}
+	
+	public int[] getSortedClassIndexes(int attributeIndex)
+	{
+		return sortedClassIndexes[attributeIndex];
+	}
+	
+	public int[] getSortedToOriginalIndexes(int attributeIndex)
+	{
+		return sortedToOriginalIndexes[attributeIndex];
+	}
+	
+	public int[] getOriginalToSortedIndexes(int attributeIndex)
+	{
+		return originalToSortedIndexes[attributeIndex];
+	}
+	
 	public double[] getClassValuesFromSorted(int attributeSortedIndex)
 	{
 		return getAttributeValuesFromSorted(classAttributeIndex, attributeSortedIndex);
@@ -369,10 +1049,10 @@ public class Dataset {
 	
 	public double[] getAttributeValuesFromSorted(int attributeIndex, int attributeSortedIndex)
 	{
-		double[] attributeValues = new double[values.length];
-		for(int instanceIndex = 0; instanceIndex < values.length; instanceIndex++)
+		double[] attributeValues = new double[numberOfInstances];
+		for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
 		{
-			attributeValues[originalToSortedIndexes[attributeSortedIndex][instanceIndex]] = values[instanceIndex][attributeIndex];
+			attributeValues[originalToSortedIndexes[attributeSortedIndex][instanceIndex]] = getValue(instanceIndex, attributeIndex);
 		}
 		return attributeValues;
 	}
@@ -380,6 +1060,7 @@ public class Dataset {
 	public void initialiseUniqueClassValues()
 	{
 		uniqueClassValues = Quicksort.sort(Util.unique(getClassValues()));
+		initialiseClassIndexes();
 	}
 	
 	public double[] getUniqueClassValues()
@@ -389,6 +1070,45 @@ public class Dataset {
 		return uniqueClassValues;
 	}
 	
+	/*
+	 * Class indexes are the positions of the class values of the instances in the unique class values
+	 * They are recalculated, along with their sorted copies, whenever the unique class values are
+	 */
+	private void initialiseClassIndexes()
+	{
+		double[] classValues = getClassValues();
+		classIndexes = new int[numberOfInstances];
+		for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+			classIndexes[instanceIndex] = Util.indexOf(classValues[instanceIndex], uniqueClassValues);
+		if(preSorted)
+			for(int attributeIndex = 0; attributeIndex < attributeNames.length; attributeIndex++)
+				initialiseSortedValues(attributeIndex, classIndexes);
+	}
+	
+	/*
+	 * Returns the shared class index of each instance, it must be treated as read-only
+	 */
+	public int[] getClassIndexes()
+	{
+		if(uniqueClassValues == null)
+			initialiseUniqueClassValues();
+		else if(classIndexes == null)
+			initialiseClassIndexes();
+		return classIndexes;
+	}
+	
+	/*
+	 * Initialises the values that are otherwise initialised lazily, so models can be constructed on the dataset from several threads
+	 */
+	public void initialiseForParallelConstruction(boolean histogramSplits)
+	{
+		if(!preSorted)
+			preSort();
+		getClassIndexes();
+		if(histogramSplits && !quantised)
+			quantise(DEFAULT_NUMBER_OF_BINS);
+	}
+	
 	public boolean longitudinalAttributesInitialised()
 	{
 		return longitudinalAttributesInitialised;
@@ -8,9 +8,15 @@ public class DecisionRule extends PredictionModel {
 	
 	// Construction attributes
 	public double minNodeSize = 2.0;
+	public boolean histogramSplits = false;
+	public double[][] nodeHistograms;
+	public SplitCache splitCache;
+	
+	// Relative tolerance of the rounding residues of subtracted histograms, far below any weight a member can have
+	private static final double HISTOGRAM_RESIDUE_TOLERANCE = 0x1p-40;
 
 	@Override
-	public void construct(Dataset dataset, double[] subset)
+	public void construct(Dataset dataset, Subset subset)
 	{
 		// Record best rule found so far
 		double bestGini = 1.0;
@@ -18,7 +24,40 @@ public class DecisionRule extends PredictionModel {
 		double bestThreshold = 0.0;
 		boolean bestDefaultDirection = false;
 		
-		double[] uniqueClassValues = dataset.getUniqueClassValues();
+		int numberOfClasses = dataset.getUniqueClassValues().length;
+		
+		if(!dataset.preSorted())
+			dataset.preSort();
+		int numberOfInstances = dataset.getNumberOfInstances();
+		int numberOfMembers = subset.size();
+		
+		// In histogram mode, splits are searched in class weight histograms, which the tree may provide for the node
+		double[][] histograms = null;
+		if(histogramSplits)
+		{
+			histograms = nodeHistograms;
+			if(histograms == null)
+				histograms = constructHistograms(dataset, subset, attributeFilter);
+			nodeHistograms = null;
+		}
+		
+		// Small subsets and subsets carrying attribute orders only walk the members, in the order of each attribute
+		// Large subsets walk the cached order of all instances, looking up weights in a dense copy of the subset
+		boolean walkMembers = subset.hasAttributeOrders() || subset.isSparse();
+		double[] denseWeights = null;
+		double[] memberAttributeValues = null;
+		int[] memberClassIndexes = null;
+		double[] memberWeights = null;
+		if(histograms != null)
+			walkMembers = false;
+		else if(walkMembers)
+		{
+			memberAttributeValues = new double[numberOfMembers];
+			memberClassIndexes = new int[numberOfMembers];
+			memberWeights = new double[numberOfMembers];
+		}
+		else
+			denseWeights = subset.toDense();
 		
 		// Search for best attribute to use for split
 		for(int attributeIndex = 0; attributeIndex < dataset.getNumberOfAttributes(); attributeIndex++)
@@ -32,119 +71,52 @@ public class DecisionRule extends PredictionModel {
 				if(!this.attributeFilter[attributeIndex])
 					continue;
 			
-			// Initialise the attribute values, the class values and the subset used in search
-			if(!dataset.preSorted())
-				dataset.preSort();
-			double[] sortedAttributeValues = dataset.getAttributeValuesFromSorted(attributeIndex, attributeIndex);
-			double[] sortedClassValues = dataset.getClassValuesFromSorted(attributeIndex);
-			double[] sortedSubset = dataset.convertSubsetOriginalToSorted(subset, attributeIndex);
-			
-			// Find all valid points where split can be made
-			boolean[] thresholdsToConsider = new boolean[dataset.getNumberOfInstances()];
-			
-			boolean topFoundFlag = false;
-			int highestValidSplitIndex = -1;
-			double lastUsedValue = 0.0;
-			
-			// Also count total number of class values present in the subset
-			// Only those instances where the attribute has a non-missing value are used
-			double[] totalClassCounts = new double[uniqueClassValues.length];
-			
-			// Search through the potential split points and record the valid ones
-			for(int instanceIndex = dataset.getNumberOfInstances()-1; instanceIndex >= 0; instanceIndex--)
+			// Splits already searched on the same subset by another tree are reused
+			double[] split = null;
+			if(splitCache != null)
+				split = splitCache.get(attributeIndex);
+			if(split == null)
 			{
-				// Ignore instances not in subset
-				if(sortedSubset != null)
-					if(sortedSubset[instanceIndex] == 0.0)
-						continue;
-				
-				// Ignore missing values
-				if(sortedAttributeValues[instanceIndex] == dataset.getMissingValue())
-					continue;
-				
-				// Add the instance to class counts
-				if(sortedSubset != null)
-				{
-					if(sortedSubset[instanceIndex] != 0.0)
-						totalClassCounts[Util.indexOf(sortedClassValues[instanceIndex], uniqueClassValues)] += sortedSubset[instanceIndex];
-				}
-				else
+				// The sorted values are cached by the dataset, only the member walk gathers its own copies
+				double[] sortedAttributeValues = dataset.getSortedAttributeValues(attributeIndex);
+				int[] sortedClassIndexes = dataset.getSortedClassIndexes(attributeIndex);
+				if(histograms != null)
+					split = searchHistogram(histograms[attributeIndex], dataset.getBinUpperValues(attributeIndex), numberOfClasses);
+				else if(walkMembers)
 				{
-					totalClassCounts[Util.indexOf(sortedClassValues[instanceIndex], uniqueClassValues)] += 1.0;
-				}
-				
-				// Start recording values only after the first instance in subset is found
-				// This is to avoid using top value for split
-				if(!topFoundFlag)
-				{
-					topFoundFlag = true;
-					lastUsedValue = sortedAttributeValues[instanceIndex];
-				}
-				else
-				{
-					// Record a valid split point each time a new attribute value is reached
-					if(lastUsedValue != sortedAttributeValues[instanceIndex])
+					int[] originalToSortedIndexes = dataset.getOriginalToSortedIndexes(attributeIndex);
+					int[] memberOrder = subset.getAttributeOrder(attributeIndex);
+					if(memberOrder == null)
+						memberOrder = subset.orderMembers(originalToSortedIndexes);
+					for(int position = 0; position < numberOfMembers; position++)
 					{
-						thresholdsToConsider[instanceIndex] = true;
-						lastUsedValue = sortedAttributeValues[instanceIndex];
-						if(highestValidSplitIndex == -1)
-							highestValidSplitIndex = instanceIndex;
+						int memberIndex = memberOrder[position];
+						int sortedIndex = originalToSortedIndexes[subset.getInstanceIndex(memberIndex)];
+						memberAttributeValues[position] = sortedAttributeValues[sortedIndex];
+						memberClassIndexes[position] = sortedClassIndexes[sortedIndex];
+						memberWeights[position] = subset.getWeight(memberIndex);
 					}
+					split = searchAttribute(memberAttributeValues, memberClassIndexes, null, memberWeights, numberOfMembers, numberOfClasses, dataset.getMissingValue());
 				}
+				else
+					split = searchAttribute(sortedAttributeValues, sortedClassIndexes, dataset.getSortedToOriginalIndexes(attributeIndex), denseWeights, numberOfInstances, numberOfClasses, dataset.getMissingValue());
+				if(splitCache != null)
+					splitCache.put(attributeIndex, split);
 			}
 			
-			// Pre-calculate total number of instances used in this split consideration
-			double sum = Util.sum(totalClassCounts);
-			double sumUnder = 0.0;
-			double sumOver = sum;
-			
-			double[] classCountsUnder = new double[totalClassCounts.length];
-			double[] classCountsOver = totalClassCounts.clone();
-			
-			// Iterate through the valid splits and update the best split if a better one is found
-			for(int instanceIndex = 0; instanceIndex <= highestValidSplitIndex; instanceIndex++)
+			// If gini is lower than previous best
+			if(split[0] < bestGini)
 			{
-				// Iteratively update the under and over class counts where appropriate
-				int indexOfClassValue = Util.indexOf(sortedClassValues[instanceIndex], uniqueClassValues);
-				if(sortedSubset != null)
-				{
-					if(sortedSubset[instanceIndex] > 0.0)
-					{
-						classCountsOver[indexOfClassValue] -= sortedSubset[instanceIndex];
-						classCountsUnder[indexOfClassValue] += sortedSubset[instanceIndex];
-						sumOver -= sortedSubset[instanceIndex];
-						sumUnder += sortedSubset[instanceIndex];
-					}
-				}
-				else
-				{
-					classCountsOver[indexOfClassValue] -= 1.0;
-					classCountsUnder[indexOfClassValue] += 1.0;
-					sumOver -= 1.0;
-					sumUnder += 1.0;
-				}
-				
-				// If a valid split is found
-				if(thresholdsToConsider[instanceIndex] && sumUnder >= minNodeSize && sumOver >= minNodeSize)
-				{
-					double giniUnder = ModelEvaluator.calculateGini(sumUnder, classCountsUnder);
-					double giniOver = ModelEvaluator.calculateGini(sumOver, classCountsOver);					
-					
-					double gini = giniUnder * (sumUnder / sum) + giniOver * (sumOver / sum);
-					
-					// If gini is higher than previous best
-					if(gini < bestGini)
-					{
-						// Update the previous best split
-						bestGini = gini;
-						bestAttributeIndex = attributeIndex;
-						bestThreshold = sortedAttributeValues[instanceIndex];
-						bestDefaultDirection = sumUnder < sumOver;
-					}
-				}
+				// Update the previous best split
+				bestGini = split[0];
+				bestAttributeIndex = attributeIndex;
+				bestThreshold = split[1];
+				bestDefaultDirection = split[2] == 1.0;
 			}
 		}
 		
+		splitCache = null;
+		
 		// Initialise the DecisionRule attributes
 		attributeIndex = bestAttributeIndex;
 		threshold = bestThreshold;
@@ -168,6 +140,21 @@ public class DecisionRule extends PredictionModel {
 		this.constructed = true;
 	}
 	
+	public int getAttributeIndex()
+	{
+		return attributeIndex;
+	}
+	
+	public double getThreshold()
+	{
+		return threshold;
+	}
+	
+	public boolean getDefaultDirection()
+	{
+		return defaultDirection;
+	}
+	
 	@Override
 	public void convertToRegression()
 	{
@@ -205,47 +192,274 @@ public class DecisionRule extends PredictionModel {
 			return 1;
 	}
 	
-	@Override
-	public double[][] constructLeafSubsets(Dataset dataset, double[] subset)
+	/*
+	 * Finds the best split of one attribute by walking the instances in the order of the attribute values
+	 * The instance at position p has the attribute value attributeValues[p] and the class index classIndexes[p]
+	 * Its weight is weights[p], or weights[weightIndexes[p]] when weightIndexes is given
+	 * Returns the gini, threshold and default direction (1.0 for true) of the best split, the gini is 1.0 if no valid split is found
+	 */
+	private double[] searchAttribute(double[] attributeValues, int[] classIndexes, int[] weightIndexes, double[] weights, int length, int numberOfClasses, double missingValue)
 	{
-		double[][] leafSubsets = new double[numberOfLeaves][];
+		double bestGini = 1.0;
+		double bestThreshold = 0.0;
+		boolean bestDefaultDirection = false;
 		
-		for(int leafIndex = 0; leafIndex < numberOfLeaves; leafIndex++)
-			leafSubsets[leafIndex] = new double[dataset.getNumberOfInstances()];
+		boolean topFoundFlag = false;
+		int highestValidSplitIndex = -1;
+		double lastUsedValue = 0.0;
+		
+		// Also count total number of class values present in the subset
+		// Only those instances where the attribute has a non-missing value are used
+		double[] totalClassCounts = new double[numberOfClasses];
 		
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
+		// Search through the potential split points to find the highest valid one
+		for(int instanceIndex = length-1; instanceIndex >= 0; instanceIndex--)
 		{
-			if(subset != null)
-				if(subset[instanceIndex] == 0.0)
-					continue;
+			// Ignore instances not in subset
+			double weight = weights[weightIndexes == null ? instanceIndex : weightIndexes[instanceIndex]];
+			if(weight == 0.0)
+				continue;
 			
-			if(dataset.getValue(instanceIndex, attributeIndex) == dataset.getMissingValue())
+			// Ignore missing values
+			if(attributeValues[instanceIndex] == missingValue)
+				continue;
+			
+			// Add the instance to class counts
+			totalClassCounts[classIndexes[instanceIndex]] += weight;
+			
+			// Start recording values only after the first instance in subset is found
+			// This is to avoid using top value for split
+			if(!topFoundFlag)
 			{
-				if(subset != null)
-				{
-					double splitAmmount = subset[instanceIndex] / (0.0 + numberOfLeaves);
-					for(int leafIndex = 0; leafIndex < numberOfLeaves; leafIndex++)
-						leafSubsets[leafIndex][instanceIndex] = splitAmmount;
-				}
-				else
+				topFoundFlag = true;
+				lastUsedValue = attributeValues[instanceIndex];
+			}
+			else
+			{
+				// A valid split point is found each time a new attribute value is reached
+				if(lastUsedValue != attributeValues[instanceIndex])
 				{
-					double splitAmmount = 1.0 / (0.0 + numberOfLeaves);
-					for(int leafIndex = 0; leafIndex < numberOfLeaves; leafIndex++)
-						leafSubsets[leafIndex][instanceIndex] = splitAmmount;
+					lastUsedValue = attributeValues[instanceIndex];
+					if(highestValidSplitIndex == -1)
+						highestValidSplitIndex = instanceIndex;
 				}
 			}
-			else
+		}
+		
+		// Pre-calculate total number of instances used in this split consideration
+		double sum = Util.sum(totalClassCounts);
+		double sumUnder = 0.0;
+		double sumOver = sum;
+		
+		double[] classCountsUnder = new double[totalClassCounts.length];
+		double[] classCountsOver = totalClassCounts.clone();
+		
+		// Position of the next instance in subset with a non-missing value, it only moves forward
+		int nextInstanceIndex = 0;
+		
+		// Iterate through the valid splits and update the best split if a better one is found
+		for(int instanceIndex = 0; instanceIndex <= highestValidSplitIndex; instanceIndex++)
+		{
+			// Iteratively update the under and over class counts where appropriate
+			double weight = weights[weightIndexes == null ? instanceIndex : weightIndexes[instanceIndex]];
+			if(weight > 0.0)
+			{
+				int indexOfClassValue = classIndexes[instanceIndex];
+				classCountsOver[indexOfClassValue] -= weight;
+				classCountsUnder[indexOfClassValue] += weight;
+				sumOver -= weight;
+				sumUnder += weight;
+			}
+			
+			// A split is valid after an instance in subset with a non-missing value
+			// if the next such instance has a different value
+			if(weight == 0.0 || attributeValues[instanceIndex] == missingValue)
+				continue;
+			if(nextInstanceIndex <= instanceIndex)
+				nextInstanceIndex = instanceIndex + 1;
+			while(nextInstanceIndex < length && 
+					(weights[weightIndexes == null ? nextInstanceIndex : weightIndexes[nextInstanceIndex]] == 0.0 || attributeValues[nextInstanceIndex] == missingValue))
+				nextInstanceIndex++;
+			if(nextInstanceIndex == length || attributeValues[nextInstanceIndex] == attributeValues[instanceIndex])
+				continue;
+			
+			// If a valid split is found
+			if(sumUnder >= minNodeSize && sumOver >= minNodeSize)
 			{
-				if(subset != null)
+				double giniUnder = ModelEvaluator.calculateGini(sumUnder, classCountsUnder);
+				double giniOver = ModelEvaluator.calculateGini(sumOver, classCountsOver);					
+				
+				double gini = giniUnder * (sumUnder / sum) + giniOver * (sumOver / sum);
+				
+				// If gini is lower than previous best
+				if(gini < bestGini)
 				{
-					leafSubsets[predictAsLeafIndex(dataset, instanceIndex)][instanceIndex] = subset[instanceIndex];
+					// Update the previous best split
+					bestGini = gini;
+					bestThreshold = attributeValues[instanceIndex];
+					bestDefaultDirection = sumUnder < sumOver;
 				}
-				else
+			}
+		}
+		
+		return new double[] {bestGini, bestThreshold, bestDefaultDirection ? 1.0 : 0.0};
+	}
+	
+	/*
+	 * Finds the best split of one attribute from its class weight histogram, splits are only considered between non-empty bins
+	 * The threshold of a split is the upper value of the last bin under it
+	 * Returns the gini, threshold and default direction (1.0 for true) of the best split, the gini is 1.0 if no valid split is found
+	 */
+	private double[] searchHistogram(double[] histogram, double[] binUpperValues, int numberOfClasses)
+	{
+		double bestGini = 1.0;
+		double bestThreshold = 0.0;
+		boolean bestDefaultDirection = false;
+		
+		int numberOfBins = binUpperValues.length;
+		double[] totalClassCounts = new double[numberOfClasses];
+		double[] binCounts = new double[numberOfBins];
+		int highestNonEmptyBin = -1;
+		for(int bin = 0; bin < numberOfBins; bin++)
+		{
+			for(int classIndex = 0; classIndex < numberOfClasses; classIndex++)
+			{
+				totalClassCounts[classIndex] += histogram[bin * numberOfClasses + classIndex];
+				binCounts[bin] += histogram[bin * numberOfClasses + classIndex];
+			}
+			if(binCounts[bin] > 0.0)
+				highestNonEmptyBin = bin;
+		}
+		
+		double sum = Util.sum(totalClassCounts);
+		double sumUnder = 0.0;
+		double sumOver = sum;
+		
+		double[] classCountsUnder = new double[numberOfClasses];
+		double[] classCountsOver = totalClassCounts.clone();
+		
+		// The highest non-empty bin can not be under a split
+		for(int bin = 0; bin < highestNonEmptyBin; bin++)
+		{
+			if(binCounts[bin] <= 0.0)
+				continue;
+			for(int classIndex = 0; classIndex < numberOfClasses; classIndex++)
+			{
+				classCountsOver[classIndex] -= histogram[bin * numberOfClasses + classIndex];
+				classCountsUnder[classIndex] += histogram[bin * numberOfClasses + classIndex];
+			}
+			sumOver -= binCounts[bin];
+			sumUnder += binCounts[bin];
+			
+			if(sumUnder >= minNodeSize && sumOver >= minNodeSize)
+			{
+				double giniUnder = ModelEvaluator.calculateGini(sumUnder, classCountsUnder);
+				double giniOver = ModelEvaluator.calculateGini(sumOver, classCountsOver);
+				
+				double gini = giniUnder * (sumUnder / sum) + giniOver * (sumOver / sum);
+				
+				if(gini < bestGini)
 				{
-					leafSubsets[predictAsLeafIndex(dataset, instanceIndex)][instanceIndex] = 1.0;
+					bestGini = gini;
+					bestThreshold = binUpperValues[bin];
+					bestDefaultDirection = sumUnder < sumOver;
 				}
 			}
 		}
+		
+		return new double[] {bestGini, bestThreshold, bestDefaultDirection ? 1.0 : 0.0};
+	}
+	
+	/*
+	 * Builds the class weight histogram of each searchable attribute over the bins of the quantised dataset
+	 * The weight of class c in bin b is stored at index b * numberOfClasses + c, missing values are not counted
+	 */
+	public static double[][] constructHistograms(Dataset dataset, Subset subset, boolean[] attributeFilter)
+	{
+		if(!dataset.quantised())
+			dataset.quantise(Dataset.DEFAULT_NUMBER_OF_BINS);
+		int[] classIndexes = dataset.getClassIndexes();
+		int numberOfClasses = dataset.getUniqueClassValues().length;
+		
+		int[] memberClassIndexes = new int[subset.size()];
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
+			memberClassIndexes[memberIndex] = classIndexes[subset.getInstanceIndex(memberIndex)];
+		
+		double[][] histograms = new double[dataset.getNumberOfAttributes()][];
+		for(int attributeIndex = 0; attributeIndex < dataset.getNumberOfAttributes(); attributeIndex++)
+		{
+			if(dataset.getClassAttributeIndex() == attributeIndex || dataset.getIdAttributeIndex() == attributeIndex)
+				continue;
+			if(attributeFilter != null && !attributeFilter[attributeIndex])
+				continue;
+			
+			byte[] binnedAttributeValues = dataset.getBinnedAttributeValues(attributeIndex);
+			double[] histogram = new double[dataset.getBinUpperValues(attributeIndex).length * numberOfClasses];
+			for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
+			{
+				int bin = binnedAttributeValues[subset.getInstanceIndex(memberIndex)] & 0xFF;
+				if(bin == Dataset.MISSING_BIN)
+					continue;
+				histogram[bin * numberOfClasses + memberClassIndexes[memberIndex]] += subset.getWeight(memberIndex);
+			}
+			histograms[attributeIndex] = histogram;
+		}
+		return histograms;
+	}
+	
+	/*
+	 * Histograms of a node are the sum of the histograms of its child nodes, so the histograms of one child
+	 * can be derived from those of its parent and its sibling
+	 * With fractional weights the difference of a bin that is empty in the child is a rounding residue rather than 0.0,
+	 * differences within a tolerance relative to the weight of the parent are therefore set to 0.0, so the bin stays empty
+	 */
+	public static double[][] subtractHistograms(double[][] histograms, double[][] subtractedHistograms)
+	{
+		double[][] difference = new double[histograms.length][];
+		for(int attributeIndex = 0; attributeIndex < histograms.length; attributeIndex++)
+		{
+			if(histograms[attributeIndex] == null)
+				continue;
+			double[] histogram = histograms[attributeIndex];
+			double[] subtractedHistogram = subtractedHistograms[attributeIndex];
+			double totalWeight = 0.0;
+			for(int index = 0; index < histogram.length; index++)
+				totalWeight += Math.abs(histogram[index]);
+			double tolerance = totalWeight * HISTOGRAM_RESIDUE_TOLERANCE;
+			
+			difference[attributeIndex] = new double[histogram.length];
+			for(int index = 0; index < histogram.length; index++)
+			{
+				double weight = histogram[index] - subtractedHistogram[index];
+				difference[attributeIndex][index] = Math.abs(weight) <= tolerance ? 0.0 : weight;
+			}
+		}
+		return difference;
+	}
+	
+	@Override
+	public Subset[] constructLeafSubsets(Dataset dataset, Subset subset)
+	{
+		Subset[] leafSubsets = new Subset[numberOfLeaves];
+		
+		for(int leafIndex = 0; leafIndex < numberOfLeaves; leafIndex++)
+			leafSubsets[leafIndex] = new Subset(dataset.getNumberOfInstances(), subset.size());
+		
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
+		{
+			int instanceIndex = subset.getInstanceIndex(memberIndex);
+			double weight = subset.getWeight(memberIndex);
+			
+			// Instances with missing values are split between all leaves
+			if(dataset.getValue(instanceIndex, attributeIndex) == dataset.getMissingValue())
+			{
+				double splitAmmount = weight / (0.0 + numberOfLeaves);
+				for(int leafIndex = 0; leafIndex < numberOfLeaves; leafIndex++)
+					leafSubsets[leafIndex].add(instanceIndex, splitAmmount);
+			}
+			else
+				leafSubsets[predictAsLeafIndex(dataset, instanceIndex)].add(instanceIndex, weight);
+		}
 		return leafSubsets;
 	}
 	
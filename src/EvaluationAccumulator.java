@@ -0,0 +1,296 @@
+import java.util.Arrays;
+
+/*
+ * Partial evaluation of a prediction model: the weighted and unweighted confusion matrices of its predictions, indexed by predicted
+ * then real class value, and a histogram of the unweighted class counts of each distinct raw prediction
+ * All measures of ModelEvaluator.evaluatePredictionModel are derived from these
+ *
+ * Accumulators of disjoint parts of the test data, such as blocks of instances, folds or the work of separate threads, can be merged
+ * Counts and the histogram merge exactly in any order, weighted sums are exact for integer weights and otherwise depend on the order of the merges
+ */
+public class EvaluationAccumulator {
+	
+	private double[] uniqueClassValues;
+	private boolean regression;
+	private double threshold;
+	
+	private double sum;
+	private double matches;
+	private double[] classifiedWeights;
+	private double[] classFrequencies;
+	private double[][] classCounts;
+	private int[][] confusionCounts;
+	private int[] predictedCounts;
+	private int[] realCounts;
+	
+	// Sorted distinct raw predictions, in the order of Arrays.sort
+	private double[] groupPredictions;
+	private int[][] groupClassCounts;
+	private int[] groupCounts;
+	
+	// Instances of the dataset outside of the evaluated data are predicted as 0.0, which is then one of the AUROC thresholds
+	private boolean hasExcludedInstances;
+	
+	/*
+	 * Regression models predict the instances up to the threshold as 0.0 and the others as 1.0
+	 */
+	public EvaluationAccumulator(double[] uniqueClassValues, boolean regression, double threshold)
+	{
+		this.uniqueClassValues = uniqueClassValues;
+		this.regression = regression;
+		this.threshold = threshold;
+		
+		int numberOfClasses = uniqueClassValues.length;
+		classifiedWeights = new double[numberOfClasses];
+		classFrequencies = new double[numberOfClasses];
+		classCounts = new double[numberOfClasses][numberOfClasses];
+		confusionCounts = new int[numberOfClasses][numberOfClasses];
+		predictedCounts = new int[numberOfClasses];
+		realCounts = new int[numberOfClasses];
+		
+		groupPredictions = new double[0];
+		groupClassCounts = new int[0][];
+		groupCounts = new int[0];
+	}
+	
+	/*
+	 * Adds the raw predictions of the given instances, weighted by the dense subset, a null subset weights all instances by 1.0
+	 * Weighted sums are accumulated in the order of the instances
+	 */
+	public void add(double[] rawPredictions, int[] instanceIndexes, int numberOfInstances, double[] classValues, double[] subset)
+	{
+		int numberOfClasses = uniqueClassValues.length;
+		
+		// Histogram of the added predictions, merged into that of the accumulator afterwards
+		double[] blockGroupPredictions = ModelEvaluator.sortedDistinctValues(Arrays.copyOf(rawPredictions, numberOfInstances));
+		int[][] blockGroupClassCounts = new int[blockGroupPredictions.length][numberOfClasses];
+		int[] blockGroupCounts = new int[blockGroupPredictions.length];
+		
+		for(int memberIndex = 0; memberIndex < numberOfInstances; memberIndex++)
+		{
+			int instanceIndex = instanceIndexes[memberIndex];
+			double weight = subset == null ? 1.0 : subset[instanceIndex];
+			double prediction = rawPredictions[memberIndex];
+			if(regression)
+				prediction = prediction <= threshold ? 0.0 : 1.0;
+			int predictedClassValueIndex = Util.indexOf(prediction, uniqueClassValues);
+			int realClassValueIndex = Util.indexOf(classValues[instanceIndex], uniqueClassValues);
+			
+			sum += weight;
+			if(classValues[instanceIndex] == prediction)
+				matches += weight;
+			if(predictedClassValueIndex != -1)
+			{
+				classifiedWeights[predictedClassValueIndex] += weight;
+				predictedCounts[predictedClassValueIndex]++;
+				if(realClassValueIndex != -1)
+				{
+					classCounts[predictedClassValueIndex][realClassValueIndex] += weight;
+					confusionCounts[predictedClassValueIndex][realClassValueIndex]++;
+				}
+			}
+			if(realClassValueIndex != -1)
+			{
+				classFrequencies[realClassValueIndex] += weight;
+				realCounts[realClassValueIndex]++;
+			}
+			
+			int group = Arrays.binarySearch(blockGroupPredictions, rawPredictions[memberIndex]);
+			blockGroupCounts[group]++;
+			if(realClassValueIndex != -1)
+				blockGroupClassCounts[group][realClassValueIndex]++;
+		}
+		
+		mergeGroups(blockGroupPredictions, blockGroupClassCounts, blockGroupCounts);
+	}
+	
+	/*
+	 * Adds the partial results of the other accumulator, which must have the same class values, regression setting and threshold
+	 */
+	public EvaluationAccumulator merge(EvaluationAccumulator other)
+	{
+		if(!Arrays.equals(uniqueClassValues, other.uniqueClassValues) || regression != other.regression || Double.compare(threshold, other.threshold) != 0)
+			throw new IllegalArgumentException("Accumulators of different evaluations cannot be merged");
+		
+		int numberOfClasses = uniqueClassValues.length;
+		sum += other.sum;
+		matches += other.matches;
+		for(int classValueIndex = 0; classValueIndex < numberOfClasses; classValueIndex++)
+		{
+			classifiedWeights[classValueIndex] += other.classifiedWeights[classValueIndex];
+			classFrequencies[classValueIndex] += other.classFrequencies[classValueIndex];
+			predictedCounts[classValueIndex] += other.predictedCounts[classValueIndex];
+			realCounts[classValueIndex] += other.realCounts[classValueIndex];
+			for(int realClassValueIndex = 0; realClassValueIndex < numberOfClasses; realClassValueIndex++)
+			{
+				classCounts[classValueIndex][realClassValueIndex] += other.classCounts[classValueIndex][realClassValueIndex];
+				confusionCounts[classValueIndex][realClassValueIndex] += other.confusionCounts[classValueIndex][realClassValueIndex];
+			}
+		}
+		mergeGroups(other.groupPredictions, other.groupClassCounts, other.groupCounts);
+		hasExcludedInstances |= other.hasExcludedInstances;
+		return this;
+	}
+	
+	/*
+	 * Merges a histogram into that of the accumulator, both are sorted so they are matched in a single pass
+	 */
+	private void mergeGroups(double[] otherGroupPredictions, int[][] otherGroupClassCounts, int[] otherGroupCounts)
+	{
+		if(otherGroupPredictions.length == 0)
+			return;
+		
+		int numberOfClasses = uniqueClassValues.length;
+		int maximumGroups = groupPredictions.length + otherGroupPredictions.length;
+		double[] mergedGroupPredictions = new double[maximumGroups];
+		int[][] mergedGroupClassCounts = new int[maximumGroups][];
+		int[] mergedGroupCounts = new int[maximumGroups];
+		
+		int group = 0;
+		int otherGroup = 0;
+		int numberOfGroups = 0;
+		while(group < groupPredictions.length || otherGroup < otherGroupPredictions.length)
+		{
+			int comparison;
+			if(group == groupPredictions.length)
+				comparison = 1;
+			else if(otherGroup == otherGroupPredictions.length)
+				comparison = -1;
+			else
+				comparison = Double.compare(groupPredictions[group], otherGroupPredictions[otherGroup]);
+			
+			if(comparison < 0)
+			{
+				mergedGroupPredictions[numberOfGroups] = groupPredictions[group];
+				mergedGroupClassCounts[numberOfGroups] = groupClassCounts[group];
+				mergedGroupCounts[numberOfGroups] = groupCounts[group++];
+			}
+			else if(comparison > 0)
+			{
+				mergedGroupPredictions[numberOfGroups] = otherGroupPredictions[otherGroup];
+				mergedGroupClassCounts[numberOfGroups] = Arrays.copyOf(otherGroupClassCounts[otherGroup], numberOfClasses);
+				mergedGroupCounts[numberOfGroups] = otherGroupCounts[otherGroup++];
+			}
+			else
+			{
+				int[] classCountsOfGroup = groupClassCounts[group];
+				for(int classValueIndex = 0; classValueIndex < numberOfClasses; classValueIndex++)
+					classCountsOfGroup[classValueIndex] += otherGroupClassCounts[otherGroup][classValueIndex];
+				mergedGroupPredictions[numberOfGroups] = groupPredictions[group];
+				mergedGroupClassCounts[numberOfGroups] = classCountsOfGroup;
+				mergedGroupCounts[numberOfGroups] = groupCounts[group++] + otherGroupCounts[otherGroup++];
+			}
+			numberOfGroups++;
+		}
+		
+		groupPredictions = Arrays.copyOf(mergedGroupPredictions, numberOfGroups);
+		groupClassCounts = Arrays.copyOf(mergedGroupClassCounts, numberOfGroups);
+		groupCounts = Arrays.copyOf(mergedGroupCounts, numberOfGroups);
+	}
+	
+	public void setHasExcludedInstances(boolean hasExcludedInstances)
+	{
+		this.hasExcludedInstances = hasExcludedInstances;
+	}
+	
+	public double getAccuracy()
+	{
+		return matches / sum;
+	}
+	
+	public double[] getClassFMeasures()
+	{
+		int numberOfClasses = uniqueClassValues.length;
+		double[] classFMeasures = new double[numberOfClasses];
+		
+		for(int classValueIndex = 0; classValueIndex < numberOfClasses; classValueIndex++)
+		{
+			double tp = confusionCounts[classValueIndex][classValueIndex];
+			double fn = realCounts[classValueIndex] - tp;
+			double fp = predictedCounts[classValueIndex] - tp;
+			
+			double precision = tp / (tp + fp);
+			double recall = tp / (tp + fn);
+			
+			double fMeasure = 2 * precision * recall / (precision + recall);
+			if(precision + recall == 0)
+				fMeasure = 0;
+			
+			// Avoid NaN values in experimental models
+			if(tp == 0.0 && (fn == 0.0 || fp == 0.0))
+				fMeasure = 0;
+			
+			classFMeasures[classValueIndex] = fMeasure;
+		}
+		return classFMeasures;
+	}
+	
+	public double getAverageFMeasure(double[] classFMeasures)
+	{
+		return Util.sum(classFMeasures) / (0.0 + uniqueClassValues.length);
+	}
+	
+	/*
+	 * Average of the F-measures weighted by the frequency of each class
+	 */
+	public double getWeightedAverageFMeasure(double[] classFMeasures)
+	{
+		double weightedAverageFMeasure = 0.0;
+		for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
+			weightedAverageFMeasure += classFMeasures[classValueIndex] * classFrequencies[classValueIndex] / sum;
+		return weightedAverageFMeasure;
+	}
+	
+	/*
+	 * Gini of the real classes of the instances predicted as each class, weighted by the share of the instances predicted as that class
+	 */
+	public double getGini()
+	{
+		double gini = 0.0;
+		
+		for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
+		{
+			double classCount = classifiedWeights[classValueIndex];
+			double classGini = ModelEvaluator.calculateGini(classCounts[classValueIndex]);
+			
+			if(classCount != 0)
+				gini += classGini * (classCount / sum);
+		}
+		return gini;
+	}
+	
+	/*
+	 * Average AUROC of all classes, the thresholds are the distinct raw predictions
+	 */
+	public double getAUROC()
+	{
+		// Each NaN prediction is a threshold of its own, as in Util.sortedUnique
+		int numberOfThresholds = hasExcludedInstances ? 1 : 0;
+		for(int group = 0; group < groupPredictions.length; group++)
+			numberOfThresholds += Double.isNaN(groupPredictions[group]) ? groupCounts[group] : 1;
+		double[] predictions = new double[numberOfThresholds];
+		int thresholdIndex = 0;
+		for(int group = 0; group < groupPredictions.length; group++)
+			for(int count = Double.isNaN(groupPredictions[group]) ? groupCounts[group] : 1; count > 0; count--)
+				predictions[thresholdIndex++] = groupPredictions[group];
+		double[] thresholds = Util.sortedUnique(predictions);
+		
+		int[] correctCounts = new int[uniqueClassValues.length];
+		for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
+			correctCounts[classValueIndex] = confusionCounts[classValueIndex][classValueIndex];
+		return ModelEvaluator.calculateAUROC(regression, uniqueClassValues, thresholds, groupPredictions, groupClassCounts, groupCounts, correctCounts, predictedCounts);
+	}
+	
+	public double getSumOfWeights()
+	{
+		return sum;
+	}
+	
+	public int getNumberOfInstances()
+	{
+		int numberOfInstances = 0;
+		for(int group = 0; group < groupCounts.length; group++)
+			numberOfInstances += groupCounts[group];
+		return numberOfInstances;
+	}
+}
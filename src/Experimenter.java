@@ -1,3 +1,4 @@
+import java.io.File;
 import java.util.ArrayList;
 
 public class Experimenter {
@@ -8,6 +9,7 @@ public class Experimenter {
 		 * Experiment parameters:
 		 * 
 		 * datasetPath - path to the dataset .csv file
+		 * binaryDatasetPath - path to the binary copy of the dataset, it is written after the .csv file is read and pre-sorted, and read instead of the .csv file while it was written from the .csv file as it is now with the same idAttribute, classAttribute and missingValue
 		 * datasetName - name of the dataset, used in the name of the results file
 		 * idAttribute - id attribute name, as it appears in the dataset file, the id attribute gets ignored during model construction
 		 * classAttribute - class attribute name, as it appears in the dataset file
@@ -22,11 +24,19 @@ public class Experimenter {
 		 * maxTreeDepth - maximum depth of the tree (outer tree)
 		 * maxNestedTreeDepth- maximim depth of the inner tree
 		 * minNodeSize - minimum size of the tree nodes
+		 * splitSearch - how trees search for splits, "Exact" walks the pre-sorted attributes for each node, "Partitioned" keeps the sorted attribute orders of each node and partitions them into its child nodes, "Histogram" searches approximate splits in class weight histograms of quantised attributes
+		 * histogramBins - number of bins attributes are quantised into for the "Histogram" split search, at most 255
+		 * constructionParallelism - number of threads used to construct each model, sibling subtrees and the candidate inner trees of nested trees are constructed in parallel
+		 * boundedConstruction - flag for nested trees to grow their candidate inner trees best-first and abandon those whose Gini lower bound shows they cannot be selected, not used with binary conversion
+		 * generatedPredictors - flag for the constructed models to generate classes hard-coding their compiled trees, through which the test folds are predicted, trees of more than 255 split nodes are still predicted by routing blocks of instances down their arrays
 		 * longitudinalAttributes - list of longitudinal attribute names (as they appear in the dataset file)
+		 * preSortParallelism - number of threads used to pre-sort the attributes
+		 * heapBudgetFraction - share of the maximum heap size the folds of the parallel cross-validation are kept within, folds wait for memory instead of running out of it
 		 * 
 		 */
 		
 		String datasetPath = "path/to/dataset.csv";
+		String binaryDatasetPath = "path/to/dataset.bin";
 		String datasetName = "myDataset";
 		String idAttribute = "Id";
 		String classAttribute = "Class";
@@ -41,14 +51,21 @@ public class Experimenter {
 		int maxTreeDepth = 10;
 		int maxNestedTreeDepth = 5;
 		int minNodeSize = 2;
+		String splitSearch = "Exact";
+		int histogramBins = Dataset.DEFAULT_NUMBER_OF_BINS;
+		int constructionParallelism = 1;
+		boolean boundedConstruction = false;
+		boolean generatedPredictors = false;
 		String[] longitudinalAttributes = new String[] {/* Longitudinal attributes here */};
+		int preSortParallelism = Runtime.getRuntime().availableProcessors();
+		double heapBudgetFraction = ModelEvaluator.DEFAULT_HEAP_BUDGET_FRACTION;
 		
 		/**
 		 * End of parameters list
 		 */
 		
 		// Initialise parameters and experiment name
-		String parameters = optimalAccuracyMeasure + "," + maxTreeDepth + "," + maxNestedTreeDepth + "," + initialClassOversampling + "," + minNodeSize + "," + regression;
+		String parameters = optimalAccuracyMeasure + "," + maxTreeDepth + "," + maxNestedTreeDepth + "," + initialClassOversampling + "," + minNodeSize + "," + regression + "," + splitSearch + "," + constructionParallelism + "," + boundedConstruction + "," + generatedPredictors;
 		String experimentName = 
 				datasetName + "_" + 
 				modelType.replace(' ', '_') + "_" +
@@ -60,24 +77,29 @@ public class Experimenter {
 		
 		// Read the dataset and initialise necessary fields
 		Dataset dataset = new Dataset();
-		dataset.setMissingValueString(missingValue);
-		dataset.readFromCSV(datasetPath);
-		dataset.setIdAttribute(idAttribute);
-		dataset.setClassAttribute(classAttribute);
-		dataset.preSort();
-		dataset.initialiseUniqueClassValues();
-		dataset.generateLongitudinalAttributes(Util.getElsaAttributes());
-		
-		// Run the experiment. Try using the parallelised implementation. If parallel fails with OutOfMemoryError, default to non-parallel
-		Object[] results;
-		try {
-			results = ModelEvaluator.runCrossValidationExperimentsParallelised(dataset, modelType, parameters, numberOfFolds, numberOfExperiments);
-		}
-		catch(OutOfMemoryError e)
+		dataset.setColumnar(true);
+		// The binary copy is only used if it was written from the dataset file as it is now, with the same id, class and missing value parameters
+		boolean binaryDatasetRead = new File(binaryDatasetPath).exists()
+				&& dataset.readFromBinary(binaryDatasetPath)
+				&& dataset.matchesSource(datasetPath, idAttribute, classAttribute, missingValue);
+		if(!binaryDatasetRead)
 		{
-			System.out.println("OutOfMemoryError occured, defaulting to non-parallel implementation");
-			results = ModelEvaluator.runCrossValidationExperiments(dataset, modelType, parameters, numberOfFolds, numberOfExperiments);
+			dataset = new Dataset();
+			dataset.setColumnar(true);
+			dataset.setMissingValueString(missingValue);
+			dataset.readFromCSV(datasetPath);
+			dataset.setIdAttribute(idAttribute);
+			dataset.setClassAttribute(classAttribute);
+			dataset.preSort(preSortParallelism);
+			dataset.initialiseUniqueClassValues();
+			dataset.writeToBinary(binaryDatasetPath);
 		}
+		dataset.generateLongitudinalAttributes(Util.getElsaAttributes());
+		if(splitSearch.equals("Histogram"))
+			dataset.quantise(histogramBins);
+		
+		// Run the experiment. Folds run in parallel within the memory budget, and fewer of them run at once if they still run out of memory
+		Object[] results = ModelEvaluator.runCrossValidationExperimentsParallelised(dataset, modelType, parameters, numberOfFolds, numberOfExperiments, Runtime.getRuntime().availableProcessors(), MemoryGovernor.heapBudget(heapBudgetFraction));
 		
 		// Print the results to console and save them to the results folder
 		ModelEvaluator.printCrossExperimentResults(experimentName + ", " + numberOfExperiments + " experiments " + numberOfFolds  + " folds, " + modelType + ", parameters: " + parameters, results, dataset);
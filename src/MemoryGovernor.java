@@ -0,0 +1,151 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * Admits memory-hungry tasks, such as the folds of parallel cross-validation, while their estimated memory and the live heap usage
+ * fit within a budget, other tasks wait until running tasks release their memory
+ *
+ * A task is always admitted when no other task is running, so tasks make progress however low the budget is
+ * Tasks that still run out of memory lower the number of tasks admitted at once, down to a single task
+ * Waiting tasks of a ForkJoinPool are managed blockers, so the pool can run its other tasks meanwhile
+ */
+public class MemoryGovernor {
+	
+	// Heap usage is polled while tasks wait, as it also drops when the garbage collector runs
+	private static final long POLLING_INTERVAL = 100;
+	
+	private ArrayList<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+	private long memoryBudget;
+	// Heap in use when the governor was created, such as the dataset, which the estimates of the tasks do not include
+	private long baselineMemory;
+	
+	private int maxRunningTasks;
+	private int runningTasks;
+	private long reservedMemory;
+	
+	public MemoryGovernor(long memoryBudget, int maxRunningTasks)
+	{
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if(pool.getType() == MemoryType.HEAP)
+				heapPools.add(pool);
+		this.memoryBudget = memoryBudget;
+		this.baselineMemory = liveHeapUsage();
+		this.maxRunningTasks = Math.max(maxRunningTasks, 1);
+	}
+	
+	/*
+	 * Budget of the given fraction of the maximum heap size
+	 */
+	public static long heapBudget(double heapFraction)
+	{
+		return (long)(heapFraction * Runtime.getRuntime().maxMemory());
+	}
+	
+	/*
+	 * Blocks until a task with the given estimated memory can run, every call must be followed by a call to release
+	 */
+	public void acquire(long taskMemory) throws InterruptedException
+	{
+		ForkJoinPool.managedBlock(new Admission(taskMemory));
+	}
+	
+	/*
+	 * Admits the task if it can run, returns whether it was admitted
+	 */
+	private synchronized boolean tryAdmit(long taskMemory)
+	{
+		if(!canAdmit(taskMemory))
+			return false;
+		runningTasks++;
+		reservedMemory += taskMemory;
+		return true;
+	}
+	
+	public synchronized void release(long taskMemory)
+	{
+		runningTasks--;
+		reservedMemory -= taskMemory;
+		notifyAll();
+	}
+	
+	/*
+	 * Called by tasks that ran out of memory before they release it, halves the number of tasks admitted at once
+	 * Returns false when the task ran on its own, which it cannot recover from by running again
+	 */
+	public synchronized boolean reduceConcurrency()
+	{
+		if(runningTasks == 1)
+			return false;
+		maxRunningTasks = Math.max(Math.min(maxRunningTasks, runningTasks) / 2, 1);
+		System.out.println("OutOfMemoryError occured, running at most " + maxRunningTasks + " tasks at once");
+		return true;
+	}
+	
+	private boolean canAdmit(long taskMemory)
+	{
+		if(runningTasks == 0)
+			return true;
+		if(runningTasks >= maxRunningTasks)
+			return false;
+		if(baselineMemory + reservedMemory + taskMemory > memoryBudget)
+			return false;
+		// The live heap usage catches tasks that need more memory than estimated
+		return liveHeapUsage() + taskMemory <= memoryBudget;
+	}
+	
+	/*
+	 * Heap usage without garbage as far as it is known: the usage of each heap pool after its last collection,
+	 * or its current usage if it has not been collected yet
+	 * A pool that is not collected again does not show the memory allocated in it since, which the estimates of the running tasks cover
+	 */
+	private long liveHeapUsage()
+	{
+		long usage = 0;
+		for(MemoryPoolMXBean pool : heapPools)
+		{
+			MemoryUsage collectionUsage = pool.getCollectionUsage();
+			if(collectionUsage != null && collectionUsage.getCommitted() > 0)
+				usage += collectionUsage.getUsed();
+			else
+				usage += pool.getUsage().getUsed();
+		}
+		return usage;
+	}
+	
+	/*
+	 * Waits for the admission of a task, as a managed blocker the pool of a waiting worker can run other tasks with a spare thread
+	 */
+	private class Admission implements ForkJoinPool.ManagedBlocker
+	{
+		private long taskMemory;
+		private boolean admitted;
+		
+		private Admission(long taskMemory)
+		{
+			this.taskMemory = taskMemory;
+		}
+		
+		@Override
+		public boolean isReleasable()
+		{
+			if(!admitted)
+				admitted = tryAdmit(taskMemory);
+			return admitted;
+		}
+		
+		@Override
+		public boolean block() throws InterruptedException
+		{
+			synchronized(MemoryGovernor.this)
+			{
+				while(!isReleasable())
+					MemoryGovernor.this.wait(POLLING_INTERVAL);
+			}
+			return true;
+		}
+	}
+}
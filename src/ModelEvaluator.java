@@ -1,12 +1,18 @@
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ModelEvaluator {
 	
 	private static double logE2 = Math.log(2.0);
 	
+	// Share of the maximum heap size parallel cross-validation keeps its folds within by default
+	public static final double DEFAULT_HEAP_BUDGET_FRACTION = 0.8;
+	
 	public static PredictionModel constructPredictionModel(String modelType, Dataset dataset, double[] subset, String parameters)
 	{
 		if(modelType.equals("ZeroR"))
@@ -21,7 +27,7 @@ public class ModelEvaluator {
 			if(!"".equals(parameters))
 			{
 				if(parameters.split(",")[3].equals("true"))
-					subset = DataPreparator.oversampleClasses(subset, dataset.getClassValues(), dataset.getUniqueClassValues());
+					subset = DataPreparator.oversampleClasses(subset, dataset.getClassIndexes(), dataset.getUniqueClassValues().length);
 			}
 			rule.construct(dataset, subset);
 			return rule;
@@ -34,10 +40,19 @@ public class ModelEvaluator {
 			{
 				tree.maxDepth = Integer.parseInt(parameters.split(",")[1]);
 				if(parameters.split(",")[3].equals("true"))
-					subset = DataPreparator.oversampleClasses(subset, dataset.getClassValues(), dataset.getUniqueClassValues());
+					subset = DataPreparator.oversampleClasses(subset, dataset.getClassIndexes(), dataset.getUniqueClassValues().length);
 				tree.minNodeSize = Integer.parseInt(parameters.split(",")[4]);
+				if(parameters.split(",").length > 6)
+				{
+					tree.sortedPartitioning = parameters.split(",")[6].equals("Partitioned");
+					tree.histogramSplits = parameters.split(",")[6].equals("Histogram");
+				}
+				if(parameters.split(",").length > 7)
+					tree.constructionParallelism = Integer.parseInt(parameters.split(",")[7]);
 			}
 			tree.construct(dataset, subset);
+			if(parameters.split(",").length > 9 && parameters.split(",")[9].equals("true"))
+				tree.generatePredictor();
 			return tree;
 		}
 		if(modelType.equals("Nested Tree"))
@@ -50,10 +65,21 @@ public class ModelEvaluator {
 				tree.maxDepth = Integer.parseInt(parameters.split(",")[1]);
 				tree.maxDepthNested = Integer.parseInt(parameters.split(",")[2]);
 				if(parameters.split(",")[3].equals("true"))
-					subset = DataPreparator.oversampleClasses(subset, dataset.getClassValues(), dataset.getUniqueClassValues());
+					subset = DataPreparator.oversampleClasses(subset, dataset.getClassIndexes(), dataset.getUniqueClassValues().length);
 				tree.minNodeSize = Integer.parseInt(parameters.split(",")[4]);
+				if(parameters.split(",").length > 6)
+				{
+					tree.sortedPartitioning = parameters.split(",")[6].equals("Partitioned");
+					tree.histogramSplits = parameters.split(",")[6].equals("Histogram");
+				}
+				if(parameters.split(",").length > 7)
+					tree.constructionParallelism = Integer.parseInt(parameters.split(",")[7]);
+				if(parameters.split(",").length > 8)
+					tree.boundedConstruction = parameters.split(",")[8].equals("true");
 			}
 			tree.construct(dataset, subset);
+			if(parameters.split(",").length > 9 && parameters.split(",")[9].equals("true"))
+				tree.generatePredictor();
 			return tree;
 		}
 		if(modelType.equals("Binary Nested Tree"))
@@ -66,10 +92,21 @@ public class ModelEvaluator {
 				tree.maxDepth = Integer.parseInt(parameters.split(",")[1]);
 				tree.maxDepthNested = Integer.parseInt(parameters.split(",")[2]);
 				if(parameters.split(",")[3].equals("true"))
-					subset = DataPreparator.oversampleClasses(subset, dataset.getClassValues(), dataset.getUniqueClassValues());
+					subset = DataPreparator.oversampleClasses(subset, dataset.getClassIndexes(), dataset.getUniqueClassValues().length);
 				tree.minNodeSize = Integer.parseInt(parameters.split(",")[4]);
+				if(parameters.split(",").length > 6)
+				{
+					tree.sortedPartitioning = parameters.split(",")[6].equals("Partitioned");
+					tree.histogramSplits = parameters.split(",")[6].equals("Histogram");
+				}
+				if(parameters.split(",").length > 7)
+					tree.constructionParallelism = Integer.parseInt(parameters.split(",")[7]);
+				if(parameters.split(",").length > 8)
+					tree.boundedConstruction = parameters.split(",")[8].equals("true");
 			}
 			tree.construct(dataset, subset);
+			if(parameters.split(",").length > 9 && parameters.split(",")[9].equals("true"))
+				tree.generatePredictor();
 			return tree;
 		}
 		
@@ -77,165 +114,135 @@ public class ModelEvaluator {
 		return null;
 	}
 	
+	/*
+	 * Selects the raw prediction of the training subset which, as the threshold between classes 0.0 and 1.0, classifies the most weight correctly
+	 * Ties go to the lowest threshold, and no threshold is selected, leaving 0.0, if none classifies any weight correctly
+	 */
 	public static double selectRegresionThreshold(PredictionModel model, Dataset dataset)
 	{
 		double[] classValues = dataset.getClassValues();
-		double[] predictions = model.predictRawRegression(dataset, model.subsetUsed);		
-		double trainingSum = Util.sum(model.subsetUsed);
-		
-		double[] uniquePredictions = Quicksort.sort(Util.unique(predictions));
+		double[] trainingSubset = model.subsetUsed.toDense();
 		
-		double threshold = 0.0;
-		double bestAccuracy = 0.0;
+		// Binary predictions are 0.0 for the members predicted up to the threshold and 1.0 for the others
+		int[] instanceIndexes = Util.nonZeroIndexes(trainingSubset, trainingSubset.length);
+		double[] memberPredictions = new double[instanceIndexes.length];
+		model.predict(dataset, instanceIndexes, instanceIndexes.length, memberPredictions);
 		
-		for(double p : uniquePredictions)
+		// The thresholds are the raw predictions of all instances, in which instances outside of the subset are 0.0 except for ZeroR
+		double[] predictions = memberPredictions;
+		if(instanceIndexes.length < dataset.getNumberOfInstances() && !(model instanceof ZeroR))
 		{
-			predictions = model.predictBinary(dataset, model.subsetUsed, p);
-			double accuracy = Util.countMatchesWeighted(classValues, predictions, model.subsetUsed) / trainingSum;
-			if(accuracy > bestAccuracy)
-			{
-				bestAccuracy = accuracy;
-				threshold = p;
-			}
+			predictions = Arrays.copyOf(memberPredictions, instanceIndexes.length + 1);
+			predictions[instanceIndexes.length] = 0.0;
 		}
-		predictions = model.predict(dataset, model.subsetUsed, threshold);
-		return threshold;
-	}
-	
-	public static double[][] evaluatePredictionModel(PredictionModel model, Dataset dataset, double[] subset)
-	{		
-		// Get real class values from the dataset
-		
-		double[] classValues = dataset.getClassValues();
-		
-		// Calculate the number of test instances
-		
-		double sum = 0.0;
-		if(subset != null)
-			sum = Util.sum(subset);
-		else
-			sum = 0.0 + dataset.getNumberOfInstances();
-		
-		// Get predictions of the model
-		
-		double[] predictions = model.predict(dataset, subset);
-		
-		// Adjust the threshold and predictions if regression is used
-		double threshold = 0.0;
-		
-		if(model.regression)
+		double[] uniquePredictions = Util.sortedUnique(predictions);
+		
+		// Group the weights of the members of each class by their sorted predictions, NaN predictions are sorted last and never below a threshold
+		// Weights are summed with compensation, so that thresholds classifying the same weight correctly tie whatever the order of their members
+		double[] groupPredictions = sortedDistinctValues(memberPredictions);
+		int numberOfGroups = groupPredictions.length;
+		double[] zeroWeights = new double[numberOfGroups + 1];
+		double[] zeroCompensations = new double[numberOfGroups + 1];
+		double[] oneWeights = new double[numberOfGroups + 1];
+		double[] oneCompensations = new double[numberOfGroups + 1];
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
 		{
-			threshold = selectRegresionThreshold(model, dataset);
-			predictions = model.predictBinary(dataset, model.subsetUsed, threshold);
+			int group = Arrays.binarySearch(groupPredictions, 0, numberOfGroups, memberPredictions[memberIndex]);
+			double weight = trainingSubset[instanceIndexes[memberIndex]];
+			if(classValues[instanceIndexes[memberIndex]] == 0.0)
+				addCompensated(zeroWeights, zeroCompensations, group + 1, weight);
+			else if(classValues[instanceIndexes[memberIndex]] == 1.0)
+				addCompensated(oneWeights, oneCompensations, group + 1, weight);
 		}
-		
-		// Calculate accuracy
-		
-		if(model.regression)
+		for(int group = 0; group < numberOfGroups; group++)
 		{
-			predictions = model.predictBinary(dataset, subset, threshold);
+			addCompensated(zeroWeights, zeroCompensations, group + 1, zeroWeights[group]);
+			zeroCompensations[group + 1] += zeroCompensations[group];
+			addCompensated(oneWeights, oneCompensations, group + 1, oneWeights[group]);
+			oneCompensations[group + 1] += oneCompensations[group];
 		}
 		
-		double accuracy = Util.countMatchesWeighted(classValues, predictions, subset) / sum;
-		
-		
-		// Calculate F-measures
-		
-		double[] classFMeasures = new double[dataset.getUniqueClassValues().length];
-		double[] classFrequencies = new double[dataset.getUniqueClassValues().length];
-		
-		double[][] classifiedSubsets = new double[dataset.getUniqueClassValues().length][];
-		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+		// Sweep the thresholds, the members up to a threshold match if they are of class 0.0 and the others if they are of class 1.0
+		double threshold = 0.0;
+		double bestMatches = 0.0;
+		for(int thresholdIndex = 0; thresholdIndex < uniquePredictions.length; thresholdIndex++)
 		{
-			double classValue = dataset.getUniqueClassValues()[classValueIndex];
-			classifiedSubsets[classValueIndex] = new double[dataset.getNumberOfInstances()];
-			for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
+			int groupsBelow = countBelowOrEqual(groupPredictions, numberOfGroups, uniquePredictions[thresholdIndex]);
+			double matches = zeroWeights[groupsBelow] + (oneWeights[numberOfGroups] - oneWeights[groupsBelow])
+					+ (zeroCompensations[groupsBelow] + (oneCompensations[numberOfGroups] - oneCompensations[groupsBelow]));
+			if(matches > bestMatches)
 			{
-				if(predictions[instanceIndex] == classValue)
-				{
-					if(subset == null)
-						classifiedSubsets[classValueIndex][instanceIndex] = 1.0;
-					else
-						classifiedSubsets[classValueIndex][instanceIndex] = subset[instanceIndex];
-				}
+				bestMatches = matches;
+				threshold = uniquePredictions[thresholdIndex];
 			}
 		}
-		
-		double[][] classCounts = new double[dataset.getUniqueClassValues().length][];
-		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
-		{
-			classCounts[classValueIndex] = Util.count(classValues, dataset.getUniqueClassValues(), classifiedSubsets[classValueIndex]);
-		}
-		
-		double gini = 0.0;
-		double totalCount;
-		if(subset == null)
-			totalCount = 0.0 + dataset.getNumberOfInstances();
+		return threshold;
+	}
+	
+	/*
+	 * Adds the value to sums[index] and its rounding error to compensations[index], the sum is then sums[index] + compensations[index]
+	 */
+	private static void addCompensated(double[] sums, double[] compensations, int index, double value)
+	{
+		double sum = sums[index] + value;
+		if(Math.abs(sums[index]) >= Math.abs(value))
+			compensations[index] += (sums[index] - sum) + value;
 		else
-			totalCount = Util.sum(subset);
-		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
-		{
-			double classCount = Util.sum(classifiedSubsets[classValueIndex]);
-			double classGini = calculateGini(classCounts[classValueIndex]);
-			
-			if(classCount != 0)
-				gini += classGini * (classCount / totalCount);
-		}
-		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+			compensations[index] += (value - sum) + sums[index];
+		sums[index] = sum;
+	}
+	
+	/*
+	 * Distinct values in the ascending order of Arrays.sort, in which Arrays.binarySearch finds each of the values and NaNs are last
+	 */
+	static double[] sortedDistinctValues(double[] values)
+	{
+		double[] sorted = Arrays.copyOf(values, values.length);
+		Arrays.sort(sorted);
+		int numberOfDistinctValues = 0;
+		for(int index = 0; index < sorted.length; index++)
+			if(numberOfDistinctValues == 0 || Double.compare(sorted[index], sorted[numberOfDistinctValues - 1]) != 0)
+				sorted[numberOfDistinctValues++] = sorted[index];
+		return Arrays.copyOf(sorted, numberOfDistinctValues);
+	}
+	
+	/*
+	 * Number of the first values that are below or equal to the threshold, values are sorted in ascending order with NaNs last
+	 */
+	private static int countBelowOrEqual(double[] values, int numberOfValues, double threshold)
+	{
+		int low = 0;
+		int high = numberOfValues;
+		while(low < high)
 		{
-			double classValue = dataset.getUniqueClassValues()[classValueIndex];
-			double tp = 0.0;
-			double tn = 0.0;
-			double fp = 0.0;
-			double fn = 0.0;
-			
-			for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-			{
-				if(subset != null)
-					if(subset[instanceIndex] == 0.0)
-						continue;
-				
-				if(classValues[instanceIndex] == classValue)
-				{
-					if(subset != null)
-						classFrequencies[classValueIndex] += subset[instanceIndex];
-					else
-						classFrequencies[classValueIndex] += 1.0;
-					if(predictions[instanceIndex] == classValue)
-						tp += 1.0;
-					else
-						fn += 1.0;
-				}
-				else
-					if(predictions[instanceIndex] == classValue)
-						fp += 1.0;
-					else
-						tn += 1.0;
-			}
-			
-			double precision = tp / (tp + fp);
-			double recall = tp / (tp + fn);
-			
-			double fMeasure = 2 * precision * recall / (precision + recall);
-			if(precision + recall == 0)
-				fMeasure = 0;
-			
-			// Avoid NaN values in experimental models
-			if(tp == 0.0 && (fn == 0.0 || fp == 0.0))
-				fMeasure = 0;
-			
-			classFMeasures[classValueIndex] = fMeasure;
+			int middle = (low + high) >>> 1;
+			if(values[middle] <= threshold)
+				low = middle + 1;
+			else
+				high = middle;
 		}
+		return low;
+	}
+	
+	/*
+	 * Test instances are predicted in blocks of this size, so the predictions of all of them are never held at once
+	 */
+	private static final int EVALUATION_BLOCK_SIZE = 16384;
+	
+	/*
+	 * Each test instance is predicted once, and a single pass over the instances in the subset fills the confusion matrices
+	 * and the histogram of predictions of the accumulator, all measures are derived from it
+	 */
+	public static double[][] evaluatePredictionModel(PredictionModel model, Dataset dataset, double[] subset)
+	{		
+		EvaluationAccumulator accumulator = accumulatePredictions(model, dataset, subset);
 		
-		double averageFMeasure = Util.sum(classFMeasures) / (0.0 + dataset.getUniqueClassValues().length);
-		double weightedAverageFMeasure = 0.0;
+		double accuracy = accumulator.getAccuracy();
+		double gini = accumulator.getGini();
 		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
-			weightedAverageFMeasure += classFMeasures[classValueIndex] * classFrequencies[classValueIndex] / sum;		
+		double[] classFMeasures = accumulator.getClassFMeasures();
+		double averageFMeasure = accumulator.getAverageFMeasure(classFMeasures);
+		double weightedAverageFMeasure = accumulator.getWeightedAverageFMeasure(classFMeasures);
 		
 		double size = 0.0 + model.size();
 		
@@ -247,66 +254,9 @@ public class ModelEvaluator {
 		if(Double.isNaN(innerModelsSize))
 			innerModelsSize = 0;
 		
-		predictions = model.predict(dataset, subset);
-		
-		double[] uniquePredictions = Quicksort.sort(Util.unique(predictions));
-		
-		double[][] truePositiveRates = new double[dataset.getUniqueClassValues().length][];
-		double[][] falsePositiveRates = new double[dataset.getUniqueClassValues().length][];
-		
-		for(int classIndex = 0; classIndex < dataset.getUniqueClassValues().length; classIndex++)
-		{
-			truePositiveRates[classIndex] = new double[uniquePredictions.length];
-			falsePositiveRates[classIndex] = new double[uniquePredictions.length];
-		}
-		
-		for(int i = 0; i < uniquePredictions.length; i++)
-		{
-			if(model.regression)
-				predictions = model.predictBinary(dataset, subset, uniquePredictions[i]);
-			else
-				predictions = model.predict(dataset, subset);
-			
-			classFrequencies = new double[dataset.getUniqueClassValues().length];
-			
-			for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
-			{
-				double classValue = dataset.getUniqueClassValues()[classValueIndex];
-				double tp = 0.0;
-				double tn = 0.0;
-				double fp = 0.0;
-				double fn = 0.0;
-				
-				for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-				{
-					if(subset != null)
-						if(subset[instanceIndex] == 0.0)
-							continue;
-					
-					if(classValues[instanceIndex] == classValue)
-					{
-						if(subset != null)
-							classFrequencies[classValueIndex] += subset[instanceIndex];
-						else
-							classFrequencies[classValueIndex] += 1.0;
-						if(predictions[instanceIndex] == classValue)
-							tp += 1.0;
-						else
-							fn += 1.0;
-					}
-					else
-						if(predictions[instanceIndex] == classValue)
-							fp += 1.0;
-						else
-							tn += 1.0;
-				}
-				
-				truePositiveRates[classValueIndex][i] = tp / (tp + fn);
-				falsePositiveRates[classValueIndex][i] = fp / (fp + tn);				
-			}
-		}
-		
-		double averageAUROC = ModelEvaluator.calculateAUROC(model, dataset, subset, uniquePredictions, classValues);
+		double averageAUROC = accumulator.getAUROC();
+		if(averageAUROC > 1.0)
+			saveHighAUROCPredictions(model, dataset, subset, averageAUROC);
 		double[] aurocPerClass = new double[] {averageAUROC, averageAUROC};
 		
 		double[][] accuracyMeasures = new double[7][];
@@ -322,53 +272,126 @@ public class ModelEvaluator {
 		return accuracyMeasures;
 	}
 	
-	public static double evaluatePredictionModelGini(PredictionModel model, Dataset dataset, double[] subset)
+	/*
+	 * Returns the partial evaluation of the model on the subset, which can be merged with those of other test data
+	 */
+	public static EvaluationAccumulator accumulatePredictions(PredictionModel model, Dataset dataset, double[] subset)
 	{
 		double[] classValues = dataset.getClassValues();
+		int[] instanceIndexes = Util.nonZeroIndexes(subset, dataset.getNumberOfInstances());
+		
+		// Adjust the threshold if regression is used
+		double threshold = 0.0;
+		
+		if(model.regression)
+		{
+			threshold = selectRegresionThreshold(model, dataset);
+		}
+		
+		EvaluationAccumulator accumulator = new EvaluationAccumulator(dataset.getUniqueClassValues(), model.regression, threshold);
+		accumulator.setHasExcludedInstances(instanceIndexes.length < dataset.getNumberOfInstances());
+		
+		int blockSize = Math.min(instanceIndexes.length, EVALUATION_BLOCK_SIZE);
+		int[] blockInstanceIndexes = new int[blockSize];
+		double[] blockPredictions = new double[blockSize];
+		for(int start = 0; start < instanceIndexes.length; start += blockSize)
+		{
+			int numberOfInstances = Math.min(blockSize, instanceIndexes.length - start);
+			System.arraycopy(instanceIndexes, start, blockInstanceIndexes, 0, numberOfInstances);
+			model.predict(dataset, blockInstanceIndexes, numberOfInstances, blockPredictions);
+			accumulator.add(blockPredictions, blockInstanceIndexes, numberOfInstances, classValues, subset);
+		}
+		return accumulator;
+	}
+	
+	public static double evaluatePredictionModelGini(PredictionModel model, Dataset dataset, Subset subset)
+	{
+		int[] classIndexes = dataset.getClassIndexes();
+		double[] uniqueClassValues = dataset.getUniqueClassValues();
 		
-		double[] predictions = model.predict(dataset, subset);
+		// Classification models evaluated on the subset they were constructed on already hold the class counts of each leaf
+		double[][] leafClassCounts = model.getLeafClassCounts(subset);
+		if(!model.regression && leafClassCounts != null && model.getDatasetUsed() == dataset)
+			return evaluateLeafClassCountsGini(model, leafClassCounts, subset, uniqueClassValues);
 		
+		// Regression predictions are thresholded on the training subset, other instances keep a prediction of 0.0
+		double[] regressionPredictions = null;
 		if(model.regression)
 		{
 			double threshold = selectRegresionThreshold(model, dataset);
-			predictions = model.predictBinary(dataset, model.subsetUsed, threshold);
+			regressionPredictions = model.predictBinary(dataset, model.subsetUsed.toDense(), threshold);
 		}
 		
-		double[][] classifiedSubsets = new double[dataset.getUniqueClassValues().length][];
+		// Weighted counts of the real classes of members classified as each class, accumulated in instance order
+		double[][] classCounts = new double[uniqueClassValues.length][uniqueClassValues.length];
+		double[] classifiedCounts = new double[uniqueClassValues.length];
 		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
 		{
-			double classValue = dataset.getUniqueClassValues()[classValueIndex];
-			classifiedSubsets[classValueIndex] = new double[dataset.getNumberOfInstances()];
-			for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-			{
-				if(predictions[instanceIndex] == classValue)
-				{
-					if(subset == null)
-						classifiedSubsets[classValueIndex][instanceIndex] = 1.0;
-					else
-						classifiedSubsets[classValueIndex][instanceIndex] = subset[instanceIndex];
-				}
-			}
+			int instanceIndex = subset.getInstanceIndex(memberIndex);
+			double prediction;
+			if(regressionPredictions == null)
+				prediction = model.predict(dataset, instanceIndex);
+			else
+				prediction = regressionPredictions[instanceIndex];
+			int classifiedValueIndex = Util.indexOf(prediction, uniqueClassValues);
+			if(classifiedValueIndex == -1)
+				continue;
+			classCounts[classifiedValueIndex][classIndexes[instanceIndex]] += subset.getWeight(memberIndex);
+			classifiedCounts[classifiedValueIndex] += subset.getWeight(memberIndex);
 		}
 		
-		double[][] classCounts = new double[dataset.getUniqueClassValues().length][];
+		double gini = 0.0;
+		double totalCount = subset.sumOfWeights();
 		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+		for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
+		{
+			double classCount = classifiedCounts[classValueIndex];
+			double classGini = calculateGini(classCounts[classValueIndex]);
+			
+			if(classCount != 0)
+				gini += classGini * (classCount / totalCount);
+		}
+		
+		return gini;
+	}
+	
+	/*
+	 * Gini of the classification made by the leaves of a model, all members of a leaf are classified as its leaf prediction
+	 * The counts of the leaves are added in ascending order, so models classifying the subset the same way get the same Gini
+	 * whatever the order of their leaves
+	 */
+	private static double evaluateLeafClassCountsGini(PredictionModel model, double[][] leafClassCounts, Subset subset, double[] uniqueClassValues)
+	{
+		double[][] classCounts = new double[uniqueClassValues.length][uniqueClassValues.length];
+		double[] classifiedCounts = new double[uniqueClassValues.length];
+		
+		int[] classifiedValueIndexes = new int[leafClassCounts.length];
+		for(int leafIndex = 0; leafIndex < leafClassCounts.length; leafIndex++)
+			classifiedValueIndexes[leafIndex] = Util.indexOf(model.getLeafPrediction(leafIndex), uniqueClassValues);
+		
+		double[] leafCounts = new double[leafClassCounts.length];
+		for(int classifiedValueIndex = 0; classifiedValueIndex < uniqueClassValues.length; classifiedValueIndex++)
 		{
-			classCounts[classValueIndex] = Util.count(classValues, dataset.getUniqueClassValues(), classifiedSubsets[classValueIndex]);
+			for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
+			{
+				int numberOfLeafCounts = 0;
+				for(int leafIndex = 0; leafIndex < leafClassCounts.length; leafIndex++)
+					if(classifiedValueIndexes[leafIndex] == classifiedValueIndex)
+						leafCounts[numberOfLeafCounts++] = leafClassCounts[leafIndex][classValueIndex];
+				Arrays.sort(leafCounts, 0, numberOfLeafCounts);
+				for(int countIndex = 0; countIndex < numberOfLeafCounts; countIndex++)
+					classCounts[classifiedValueIndex][classValueIndex] += leafCounts[countIndex];
+			}
+			classifiedCounts[classifiedValueIndex] = Util.sum(classCounts[classifiedValueIndex]);
 		}
 		
 		double gini = 0.0;
-		double totalCount;
-		if(subset == null)
-			totalCount = 0.0 + dataset.getNumberOfInstances();
-		else
-			totalCount = Util.sum(subset);
+		double totalCount = subset.sumOfWeights();
 		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+		for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
 		{
-			double classCount = Util.sum(classifiedSubsets[classValueIndex]);
+			double classCount = classifiedCounts[classValueIndex];
 			double classGini = calculateGini(classCounts[classValueIndex]);
 			
 			if(classCount != 0)
@@ -434,6 +457,64 @@ public class ModelEvaluator {
 		return splits;
 	}
 	
+	// Memory a constructed tree retains for each training instance and level of nodes, as the nodes of each level keep the subsets they split
+	// Measured from 20 bytes for shallow trees to 49 bytes for nested trees with deep inner trees, on the synthetic 20k dataset of Benchmarker
+	private static final long TREE_LEVEL_BYTES_PER_INSTANCE = 32;
+	
+	/*
+	 * Estimate of the memory used to construct and evaluate the model of a cross-validation fold, in bytes, the dataset itself is shared by all folds
+	 * It covers the splits, the levels of subsets the tree retains, where each outer level of a nested tree also holds the levels of its inner trees,
+	 * the candidate inner trees constructed at once and the sorted attribute orders of partitioned split search
+	 */
+	public static long estimateCrossValidationFoldMemory(Dataset dataset, String modelType, String modelParameters)
+	{
+		String[] parameters = modelParameters.split(",");
+		long numberOfInstances = dataset.getNumberOfInstances();
+		
+		// Training and test splits, indexes of the test instances and the member predictions of a regression threshold
+		long bytesPerInstance = 16 + 4 + 8;
+		
+		long treeLevels = 0;
+		int concurrentTrees = 1;
+		if(modelType.equals("Rule"))
+			treeLevels = 1;
+		else if(modelType.equals("Tree"))
+			treeLevels = estimateTreeLevels(parameters, 1, numberOfInstances);
+		else if(modelType.indexOf("Nested") != -1)
+		{
+			// Candidate inner trees are constructed all at once by bounded construction, and as many as the construction parallelism otherwise
+			long levels = estimateTreeLevels(parameters, 1, numberOfInstances);
+			long innerLevels = estimateTreeLevels(parameters, 2, numberOfInstances);
+			int numberOfGroups = dataset.getLongitudinalAttributes() == null ? 1 : dataset.getLongitudinalAttributes().length;
+			int constructionParallelism = parameters.length > 7 ? Integer.parseInt(parameters[7]) : 1;
+			if(parameters.length > 8 && parameters[8].equals("true"))
+				concurrentTrees = numberOfGroups;
+			else if(constructionParallelism > 1)
+				concurrentTrees = Math.min(constructionParallelism, numberOfGroups);
+			treeLevels = levels * (1 + innerLevels) + concurrentTrees * innerLevels;
+		}
+		bytesPerInstance += treeLevels * TREE_LEVEL_BYTES_PER_INSTANCE;
+		
+		// The sorted attribute orders of the subset are partitioned down each tree being constructed
+		if(treeLevels > 0 && parameters.length > 6 && parameters[6].equals("Partitioned"))
+			bytesPerInstance += 4l * dataset.getNumberOfAttributes() * concurrentTrees;
+		
+		return numberOfInstances * bytesPerInstance;
+	}
+	
+	/*
+	 * Levels of nodes below the root of a tree with the maximum depth given by the parameter, trees of unlimited depth
+	 * are assumed to split the instances down to single instances in balanced levels
+	 */
+	private static long estimateTreeLevels(String[] parameters, int parameterIndex, long numberOfInstances)
+	{
+		int maxDepth = parameters.length > parameterIndex ? Integer.parseInt(parameters[parameterIndex]) : -1;
+		long balancedLevels = 64 - Long.numberOfLeadingZeros(Math.max(numberOfInstances - 1, 1));
+		if(maxDepth < 1)
+			return balancedLevels;
+		return maxDepth - 1;
+	}
+	
 	public static Object[] runCrossValidationExperiments(Dataset dataset, String modelType, String modelParameters, int numberOfSplits, int numberOfExperiments)
 	{
 		double[][] averageAccuracyMeasures = null;
@@ -496,9 +577,26 @@ public class ModelEvaluator {
 	
 	public static Object[] runCrossValidationExperimentsParallelised(Dataset dataset, String modelType, String modelParameters, int numberOfSplits, int numberOfExperiments)
 	{
-		ArrayList<Integer> experimentIndexes = new ArrayList<Integer>();
-		for(int experimentIndex = 0; experimentIndex < numberOfExperiments; experimentIndex++)
-			experimentIndexes.add(new Integer(experimentIndex));
+		return runCrossValidationExperimentsParallelised(dataset, modelType, modelParameters, numberOfSplits, numberOfExperiments, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/*
+	 * Runs without a memory budget, as many folds run at once as the parallelism allows
+	 * A fold that runs out of memory still runs again with fewer folds at once, unless it ran on its own
+	 */
+	public static Object[] runCrossValidationExperimentsParallelised(Dataset dataset, String modelType, String modelParameters, int numberOfSplits, int numberOfExperiments, int parallelism)
+	{
+		return runCrossValidationExperimentsParallelised(dataset, modelType, modelParameters, numberOfSplits, numberOfExperiments, parallelism, Long.MAX_VALUE);
+	}
+	
+	/*
+	 * Every fold of every experiment is constructed and evaluated as a task of its own on a work-stealing pool of the given parallelism
+	 * Results are stored by experiment and fold index and reduced in that order, so they do not depend on the order the tasks run in
+	 * Fold tasks wait for memory within the budget before they run, and folds that run out of memory run again with fewer folds at once
+	 * A budget of Long.MAX_VALUE only limits the folds running at once to the parallelism
+	 */
+	public static Object[] runCrossValidationExperimentsParallelised(Dataset dataset, String modelType, String modelParameters, int numberOfSplits, int numberOfExperiments, int parallelism, long memoryBudget)
+	{
 		double[][] averageAccuracyMeasures = null;
 		
 		double[][][] experimentResults = new double[numberOfExperiments][][];
@@ -521,14 +619,73 @@ public class ModelEvaluator {
 		double bestMeasure = (bestModelSelectionMeasure[2] == 1)?Double.MIN_VALUE:Double.MAX_VALUE;
 		PredictionModel bestModel = null;
 		
-		experimentIndexes
-			.parallelStream()
-			.forEach(e -> 
+		MemoryGovernor memoryGovernor = new MemoryGovernor(memoryBudget, parallelism);
+		long foldMemory = estimateCrossValidationFoldMemory(dataset, modelType, modelParameters);
+		
+		// Each experiment task generates its splits and forks the tasks of its folds, its fold models are released once it has reduced them
+		// Experiments only keep the fold of each instance, the training and test sets of a fold are rebuilt by its task
+		int[] taskModelSelectionMeasure = bestModelSelectionMeasure;
+		ArrayList<ForkJoinTask<?>> experimentTasks = new ArrayList<ForkJoinTask<?>>();
+		for(int experimentIndex = 0; experimentIndex < numberOfExperiments; experimentIndex++)
+		{
+			int taskExperimentIndex = experimentIndex;
+			experimentTasks.add(ForkJoinTask.adapt(() -> {
+				int[] instanceFolds = crossValidationFolds(ModelEvaluator.generateStratifiedCrossValidationSplits(dataset, numberOfSplits, 0l + taskExperimentIndex));
+				double[][][] foldResults = new double[numberOfSplits][][];
+				PredictionModel[] foldModels = new PredictionModel[numberOfSplits];
+				
+				ArrayList<ForkJoinTask<?>> foldTasks = new ArrayList<ForkJoinTask<?>>();
+				for(int crossValidationIndex = 0; crossValidationIndex < numberOfSplits; crossValidationIndex++)
 				{
-					Object[] results = runCrossValidationExperiment(dataset, modelType, modelParameters, numberOfSplits, e);
-					experimentResults[e] = (double[][])results[0];
-					bestModels[e] = (PredictionModel)results[1];
-				});
+					int taskCrossValidationIndex = crossValidationIndex;
+					foldTasks.add(ForkJoinTask.adapt(() -> {
+						while(foldResults[taskCrossValidationIndex] == null)
+						{
+							try {
+								memoryGovernor.acquire(foldMemory);
+							} catch (InterruptedException e) {
+								throw new RuntimeException("Cross-validation interrupted", e);
+							}
+							try {
+								double[] testSet = new double[instanceFolds.length];
+								for(int instanceIndex = 0; instanceIndex < instanceFolds.length; instanceIndex++)
+									if(instanceFolds[instanceIndex] == taskCrossValidationIndex)
+										testSet[instanceIndex] = 1.0;
+								double[] trainingSet = numberOfSplits == 1 ? Util.fill(1.0, instanceFolds.length) : Util.invert(testSet);
+								PredictionModel model = ModelEvaluator.constructPredictionModel(modelType, dataset, trainingSet, modelParameters);
+								if(modelParameters.split(",")[5].equals("true"))
+									model.convertToRegression();
+								double[][] accuracyMeasures = ModelEvaluator.evaluatePredictionModel(model, dataset, testSet);
+								synchronized(foldModels)
+								{
+									foldResults[taskCrossValidationIndex] = accuracyMeasures;
+									foldModels[taskCrossValidationIndex] = model;
+									releaseDominatedFoldModels(foldResults, foldModels, taskModelSelectionMeasure);
+								}
+							} catch (OutOfMemoryError e) {
+								// The fold runs again once fewer folds run at once, its model and splits are deterministic
+								if(!memoryGovernor.reduceConcurrency())
+									throw e;
+							} finally {
+								memoryGovernor.release(foldMemory);
+							}
+						}
+					}));
+				}
+				ForkJoinTask.invokeAll(foldTasks);
+				
+				Object[] results = reduceCrossValidationExperiment(foldResults, foldModels, taskModelSelectionMeasure);
+				experimentResults[taskExperimentIndex] = (double[][])results[0];
+				bestModels[taskExperimentIndex] = (PredictionModel)results[1];
+			}));
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(ForkJoinTask.adapt(() -> { ForkJoinTask.invokeAll(experimentTasks); }));
+		} finally {
+			pool.shutdown();
+		}
 		
 		for(int experimentIndex = 0; experimentIndex < numberOfExperiments; experimentIndex++)
 		{
@@ -556,48 +713,82 @@ public class ModelEvaluator {
 		return new Object[] {averageAccuracyMeasures, bestModel};
 	}
 	
-	private static Object[] runCrossValidationExperiment(Dataset dataset, String modelType, String modelParameters, int numberOfSplits, int experimentIndex)
+	/*
+	 * Index of the split each instance is in the test set of, or -1 for instances that are in no test set
+	 * With a single split all instances are in its test set
+	 */
+	private static int[] crossValidationFolds(double[][][] crossValidationSplits)
 	{
-		double[][] averageAccuracyMeasures = null;
-		double[][][] crossValidationSplits = ModelEvaluator.generateStratifiedCrossValidationSplits(dataset, numberOfSplits, 0l + experimentIndex);
-		
-		int[] bestModelSelectionMeasure = new int[3];
-		// First two numbers indicate the index of the desired measure in the measures output
-		// Third number is 1 if higher values is better, 0 if lower value is better
+		int[] instanceFolds = Util.fill(-1, crossValidationSplits[0][1].length);
+		for(int splitIndex = 0; splitIndex < crossValidationSplits.length; splitIndex++)
+			for(int instanceIndex = 0; instanceIndex < instanceFolds.length; instanceIndex++)
+				if(crossValidationSplits[splitIndex][1][instanceIndex] != 0.0)
+					instanceFolds[instanceIndex] = splitIndex;
+		return instanceFolds;
+	}
+	
+	/*
+	 * Releases the models of the completed folds of an experiment that reduceCrossValidationExperiment cannot select,
+	 * because a completed earlier fold is at least as good or a completed later fold is better
+	 */
+	private static void releaseDominatedFoldModels(double[][][] foldResults, PredictionModel[] foldModels, int[] bestModelSelectionMeasure)
+	{
+		boolean optimisingForHigherValue = bestModelSelectionMeasure[2] == 1;
+		double initialMeasure = optimisingForHigherValue?Double.MIN_VALUE:Double.MAX_VALUE;
 		
-		if(modelParameters.indexOf("Accuracy") != -1)
-			bestModelSelectionMeasure = new int[] {0,0,1};
-		else if(modelParameters.indexOf("AverageFMeasure") != -1)
-				bestModelSelectionMeasure = new int[] {2,0,1};
-		else if(modelParameters.indexOf("WeightedFMeasure") != -1)
-				bestModelSelectionMeasure = new int[] {2,1,1};
-		else
-			bestModelSelectionMeasure = new int[] {0,0,1}; // Default to Accuracy
+		for(int crossValidationIndex = 0; crossValidationIndex < foldResults.length; crossValidationIndex++)
+		{
+			if(foldModels[crossValidationIndex] == null)
+				continue;
+			double measure = foldResults[crossValidationIndex][bestModelSelectionMeasure[0]][bestModelSelectionMeasure[1]];
+			boolean dominated = !isBetterMeasure(measure, initialMeasure, optimisingForHigherValue);
+			for(int otherIndex = 0; otherIndex < foldResults.length && !dominated; otherIndex++)
+			{
+				if(otherIndex == crossValidationIndex || foldResults[otherIndex] == null)
+					continue;
+				double otherMeasure = foldResults[otherIndex][bestModelSelectionMeasure[0]][bestModelSelectionMeasure[1]];
+				// Earlier folds that are never selected, such as those with NaN measures, do not stop later folds from being selected
+				if(otherIndex < crossValidationIndex)
+					dominated = isBetterMeasure(otherMeasure, initialMeasure, optimisingForHigherValue) && !isBetterMeasure(measure, otherMeasure, optimisingForHigherValue);
+				else
+					dominated = isBetterMeasure(otherMeasure, measure, optimisingForHigherValue);
+			}
+			if(dominated)
+				foldModels[crossValidationIndex] = null;
+		}
+	}
+	
+	private static boolean isBetterMeasure(double measure, double otherMeasure, boolean optimisingForHigherValue)
+	{
+		return optimisingForHigherValue ? measure > otherMeasure : measure < otherMeasure;
+	}
+	
+	/*
+	 * Sums the measures of the folds of an experiment in fold order and selects its best model
+	 */
+	private static Object[] reduceCrossValidationExperiment(double[][][] foldResults, PredictionModel[] foldModels, int[] bestModelSelectionMeasure)
+	{
+		double[][] averageAccuracyMeasures = null;
 		
 		boolean optimisingForHigherValue = bestModelSelectionMeasure[2] == 1;
 		double bestMeasure = (bestModelSelectionMeasure[2] == 1)?Double.MIN_VALUE:Double.MAX_VALUE;
 		PredictionModel bestModel = null;
 		
-		for(int crossValidationIndex = 0; crossValidationIndex < numberOfSplits; crossValidationIndex++)
+		for(int crossValidationIndex = 0; crossValidationIndex < foldResults.length; crossValidationIndex++)
 		{
-			double[] trainingSet = crossValidationSplits[crossValidationIndex][0];
-			double[] testSet = crossValidationSplits[crossValidationIndex][1];
-			PredictionModel model = ModelEvaluator.constructPredictionModel(modelType, dataset, trainingSet, modelParameters);
-			if(modelParameters.split(",")[5].equals("true"))
-				model.convertToRegression();
-			double[][] accuracyMeasures = ModelEvaluator.evaluatePredictionModel(model, dataset, testSet);
+			double[][] accuracyMeasures = foldResults[crossValidationIndex];
 			averageAccuracyMeasures = Util.sum(averageAccuracyMeasures, accuracyMeasures);
 			double accuracyMeasureForOptimisation = 
 					accuracyMeasures[bestModelSelectionMeasure[0]][bestModelSelectionMeasure[1]];
 			if(accuracyMeasureForOptimisation > bestMeasure && optimisingForHigherValue)
 			{
 				bestMeasure = accuracyMeasures[bestModelSelectionMeasure[0]][bestModelSelectionMeasure[1]];
-				bestModel = model;
+				bestModel = foldModels[crossValidationIndex];
 			}
 			else if(accuracyMeasureForOptimisation < bestMeasure && !optimisingForHigherValue)
 			{
 				bestMeasure = accuracyMeasures[bestModelSelectionMeasure[0]][bestModelSelectionMeasure[1]];
-				bestModel = model;
+				bestModel = foldModels[crossValidationIndex];
 			}
 		}
 		return new Object[] {averageAccuracyMeasures, bestModel};
@@ -656,21 +847,13 @@ public class ModelEvaluator {
 		}
 	}
 	
-	public static double estimateGiniOfDataset(Dataset dataset, double[] subset)
+	public static double estimateGiniOfDataset(Dataset dataset, Subset subset)
 	{
 		double classCounts[] = new double[dataset.getUniqueClassValues().length];
-		int classIndex = dataset.getClassAttributeIndex();
-		double[] uniqueClassValues = dataset.getUniqueClassValues();
+		int[] classIndexes = dataset.getClassIndexes();
 		
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-		{
-			double classValue = dataset.getValue(instanceIndex, classIndex);
-			int classValueIndex = Util.indexOf(classValue, uniqueClassValues);
-			if(subset == null)
-				classCounts[classValueIndex] += 1.0;
-			else
-				classCounts[classValueIndex] += subset[instanceIndex];
-		}
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
+			classCounts[classIndexes[subset.getInstanceIndex(memberIndex)]] += subset.getWeight(memberIndex);
 		
 		return ModelEvaluator.calculateGini(classCounts);
 	}
@@ -746,79 +929,119 @@ public class ModelEvaluator {
 		return informationGain;
 	}
 	
+	/*
+	 * Predictions are those of the model for all instances and their unique values are the thresholds of the ROC curves
+	 */
 	public static double calculateAUROC(PredictionModel model, Dataset dataset, double[] subset, double[] predictions, double[] classValues)
+	{
+		double[] uniqueClassValues = dataset.getUniqueClassValues();
+		double[] thresholds = Util.sortedUnique(predictions);
+		
+		// Count the instances of each class, grouped by their sorted predictions
+		
+		int[] instanceIndexes = Util.nonZeroIndexes(subset, dataset.getNumberOfInstances());
+		double[] memberPredictions = new double[instanceIndexes.length];
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
+			memberPredictions[memberIndex] = predictions[instanceIndexes[memberIndex]];
+		double[] groupPredictions = sortedDistinctValues(memberPredictions);
+		int[][] groupClassCounts = new int[groupPredictions.length][uniqueClassValues.length];
+		int[] groupCounts = new int[groupPredictions.length];
+		
+		// Counts of the instances of each class predicted as that class, used when the predictions do not depend on the threshold
+		int[] correctCounts = new int[uniqueClassValues.length];
+		int[] predictedCounts = new int[uniqueClassValues.length];
+		
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
+		{
+			int group = Arrays.binarySearch(groupPredictions, memberPredictions[memberIndex]);
+			int classValueIndex = Util.indexOf(classValues[instanceIndexes[memberIndex]], uniqueClassValues);
+			int predictedClassValueIndex = Util.indexOf(memberPredictions[memberIndex], uniqueClassValues);
+			groupCounts[group]++;
+			if(classValueIndex != -1)
+				groupClassCounts[group][classValueIndex]++;
+			if(predictedClassValueIndex != -1)
+			{
+				predictedCounts[predictedClassValueIndex]++;
+				if(predictedClassValueIndex == classValueIndex)
+					correctCounts[predictedClassValueIndex]++;
+			}
+		}
+		
+		double averageAUROC = calculateAUROC(model.regression, uniqueClassValues, thresholds, groupPredictions, groupClassCounts, groupCounts, correctCounts, predictedCounts);
+		if(averageAUROC > 1.0)
+			saveHighAUROCPredictions(model, dataset, subset, averageAUROC);
+		return averageAUROC;
+	}
+	
+	/*
+	 * Regression models predict the instances up to a threshold as 0.0 and the others as 1.0, other models make the same predictions at all thresholds
+	 * The confusion matrices of all thresholds are swept from the unweighted class counts of the histogram of the sorted predictions
+	 */
+	static double calculateAUROC(boolean regression, double[] uniqueClassValues, double[] thresholds, double[] groupPredictions, int[][] groupClassCounts, int[] groupCounts, int[] correctCounts, int[] predictedCounts)
 	{
 		// Initialise variables for AUROC calculation
 		
-		double[] aurocPerClass = new double[dataset.getUniqueClassValues().length];
-		double[] thresholds = Quicksort.sort(Util.unique(predictions));
+		double[] aurocPerClass = new double[uniqueClassValues.length];
 		
-		double[][] truePositiveRates = new double[dataset.getUniqueClassValues().length][];
-		double[][] falsePositiveRates = new double[dataset.getUniqueClassValues().length][];
-
-		double[] classFrequencies = new double[dataset.getUniqueClassValues().length];
+		double[][] truePositiveRates = new double[uniqueClassValues.length][thresholds.length];
+		double[][] falsePositiveRates = new double[uniqueClassValues.length][thresholds.length];
 		
-		for(int classIndex = 0; classIndex < dataset.getUniqueClassValues().length; classIndex++)
+		// Cumulative counts of the instances of each class, and of all instances, in the groups before each group
+		int numberOfGroups = groupPredictions.length;
+		int[][] classCountsBelow = new int[numberOfGroups + 1][uniqueClassValues.length];
+		int[] countsBelow = new int[numberOfGroups + 1];
+		for(int group = 0; group < numberOfGroups; group++)
 		{
-			truePositiveRates[classIndex] = new double[thresholds.length];
-			falsePositiveRates[classIndex] = new double[thresholds.length];
+			for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
+				classCountsBelow[group + 1][classValueIndex] = classCountsBelow[group][classValueIndex] + groupClassCounts[group][classValueIndex];
+			countsBelow[group + 1] = countsBelow[group] + groupCounts[group];
 		}
+		int numberOfInstances = countsBelow[numberOfGroups];
 		
-		// Iterate over all thresholds to get points of the AUROC curve
+		// Sweep the thresholds to get points of the AUROC curve
 		
 		for(int i = 0; i < thresholds.length; i++)
 		{
-			// Predict the class values based on the current threshold
-			if(model.regression)
-				predictions = model.predictBinary(dataset, subset, thresholds[i]);
-			else
-				predictions = model.predict(dataset, subset);
+			int groupsBelow = countBelowOrEqual(groupPredictions, numberOfGroups, thresholds[i]);
 			
 			// Generate a point on the AUROC curves of all classes
 			
-			for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+			for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
 			{
 				// The class value
-				double classValue = dataset.getUniqueClassValues()[classValueIndex];
+				double classValue = uniqueClassValues[classValueIndex];
+				int classCount = classCountsBelow[numberOfGroups][classValueIndex];
 				
 				// Calculate the components of TPR and TNR
 				double tp = 0.0;
-				double tn = 0.0;
 				double fp = 0.0;
-				double fn = 0.0;
 				
-				for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
+				if(!regression)
 				{
-					if(subset != null)
-						if(subset[instanceIndex] == 0.0)
-							continue;
-					
-					if(classValues[instanceIndex] == classValue)
-					{
-//						if(subset != null)
-//							classFrequencies[classValueIndex] += subset[instanceIndex];
-//						else
-							classFrequencies[classValueIndex] += 1.0;
-						if(predictions[instanceIndex] == classValue)
-							tp += 1.0;
-						else
-							fn += 1.0;
-					}
-					else
-						if(predictions[instanceIndex] == classValue)
-							fp += 1.0;
-						else
-							tn += 1.0;
+					tp = correctCounts[classValueIndex];
+					fp = predictedCounts[classValueIndex] - correctCounts[classValueIndex];
+				}
+				else if(classValue == 0.0)
+				{
+					tp = classCountsBelow[groupsBelow][classValueIndex];
+					fp = countsBelow[groupsBelow] - tp;
 				}
+				else if(classValue == 1.0)
+				{
+					tp = classCount - classCountsBelow[groupsBelow][classValueIndex];
+					fp = (numberOfInstances - countsBelow[groupsBelow]) - tp;
+				}
+				double fn = classCount - tp;
+				double tn = (numberOfInstances - classCount) - fp;
 				
 				// Calculate TPR and FPR of the currecnt class at the current threshold
 				truePositiveRates[classValueIndex][i] = tp / (tp + fn);
-				falsePositiveRates[classValueIndex][i] = fp / (fp + tn);				
+				falsePositiveRates[classValueIndex][i] = fp / (fp + tn);
 			}
 		}
 		
 		// Calculate AUROC values for each class
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+		for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
 		{
 			aurocPerClass[classValueIndex] = 0;
 			for(int i = 0; i < thresholds.length + 1; i++)
@@ -877,21 +1100,21 @@ public class ModelEvaluator {
 		
 		double averageAUROC = 0.0;
 		
-		for(int classValueIndex = 0; classValueIndex < dataset.getUniqueClassValues().length; classValueIndex++)
+		for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
 		{
 			averageAUROC += aurocPerClass[classValueIndex];
 		}
 		
-		averageAUROC /= 0.0 + dataset.getUniqueClassValues().length;
-		
-		if(averageAUROC > 1.0)
-		{
-			Dataset toSave = new Dataset();
-			toSave.setAttributeNames(new String[] {"Class_" + dataset.getClassValues().length, "Predictions_" + predictions.length, "Subset_" + subset.length});
-			toSave.setValues(Util.transpose(new double[][] {dataset.getClassValues(), model.predict(dataset, subset), subset}));
-			toSave.writeToCSV("syntheticDatasets/" + System.currentTimeMillis() + "_AUROC_HIGH_" + averageAUROC + ".csv");
-		}
+		averageAUROC /= 0.0 + uniqueClassValues.length;
 		
 		return averageAUROC;
 	}
+	
+	private static void saveHighAUROCPredictions(PredictionModel model, Dataset dataset, double[] subset, double averageAUROC)
+	{
+		Dataset toSave = new Dataset();
+		toSave.setAttributeNames(new String[] {"Class_" + dataset.getClassValues().length, "Predictions_" + dataset.getNumberOfInstances(), "Subset_" + subset.length});
+		toSave.setValues(Util.transpose(new double[][] {dataset.getClassValues(), model.predict(dataset, subset), subset}));
+		toSave.writeToCSV("syntheticDatasets/" + System.currentTimeMillis() + "_AUROC_HIGH_" + averageAUROC + ".csv");
+	}
 }
@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class NestedDecisionTree extends PredictionModel {
 
@@ -15,12 +17,39 @@ public class NestedDecisionTree extends PredictionModel {
 	public int maxDepthNested = -1;
 	public boolean binaryConversion = false;
 	public double minNodeSize = 0;
+	public boolean sortedPartitioning = false;
+	public boolean histogramSplits = false;
+	public int constructionParallelism = 1;
+	public boolean boundedConstruction = false;
+	
+	// Margin by which the Gini lower bound of a candidate tree must exceed the best Gini for the candidate to be abandoned,
+	// covering the rounding differences between the bound and the evaluated Gini
+	private static final double GINI_BOUND_TOLERANCE = 1e-9;
+	
+	// Pool the candidate inner trees and subtrees are constructed on when constructionParallelism is above 1
+	private ForkJoinPool constructionPool;
+	
+	// Whole nested tree flattened for prediction, null if an inner model could not be lowered into it
+	private CompiledTree compiledTree;
 	
 	@Override
-	public void construct(Dataset dataset, double[] subset)
+	public void construct(Dataset dataset, Subset subset)
 	{
 		nodes = new ArrayList<PredictionModel>();
-		constructNode(dataset, subset, -1, maxDepth);
+		compiledTree = null;
+		if(constructionParallelism > 1)
+		{
+			dataset.initialiseForParallelConstruction(histogramSplits);
+			constructionPool = new ForkJoinPool(constructionParallelism);
+			try {
+				constructionPool.invoke(ForkJoinTask.adapt(() -> constructNode(dataset, subset, -1, maxDepth, nodes)));
+			} finally {
+				constructionPool.shutdown();
+				constructionPool = null;
+			}
+		}
+		else
+			constructNode(dataset, subset, -1, maxDepth, nodes);
 		if(pruneForPrediction)
 			pruneForPrediction();
 		initialiseModelLeaves();
@@ -29,9 +58,13 @@ public class NestedDecisionTree extends PredictionModel {
 		initialiseLeafPredictions(dataset, subset);
 		datasetUsed = dataset;
 		subsetUsed = subset;
+		compile();
 	}
 	
-	public void constructNode(Dataset dataset, double[] subset, int parentNodeIndex, int maxDepth)
+	/*
+	 * The nodes of the subtree are appended to subtreeNodes, which is the node list of the tree unless the subtree is constructed as a parallel task
+	 */
+	public void constructNode(Dataset dataset, Subset subset, int parentNodeIndex, int maxDepth, ArrayList<PredictionModel> subtreeNodes)
 	{
 		if(!dataset.longitudinalAttributesInitialised())
 			dataset.generateLongitudinalAttributes(Util.getElsaAttributes());
@@ -46,45 +79,159 @@ public class NestedDecisionTree extends PredictionModel {
 		
 		bestModel = zeror;
 		
-		if(maxDepth > 1 && Util.sum(subset) >= minNodeSize)
-			for(boolean[] longitudinalAttributeSubset : longitudinalAttributeSubsets)
+		if(maxDepth > 1 && subset.sumOfWeights() >= minNodeSize)
+		{
+			// Candidate trees share the splits they search on the subset and on the leaf subsets of the rules they have in common, as attribute groups can overlap
+			SplitCache splitCache = new SplitCache(dataset.getNumberOfAttributes());
+			// Binary conversion changes how a tree classifies the subset, the Gini lower bound does not hold for converted trees
+			if(boundedConstruction && !binaryConversion)
+				bestModel = constructBestCandidateTree(dataset, subset, longitudinalAttributeSubsets, splitCache, bestGini, bestModel);
+			else if(constructionPool == null)
 			{
-				DecisionTree tree = new DecisionTree();
-				tree.setAttributeFilter(longitudinalAttributeSubset);
-				tree.maxDepth = maxDepthNested;
-				tree.minNodeSize = minNodeSize;
-				tree.construct(dataset, subset);
-				if(binaryConversion)
+				for(boolean[] longitudinalAttributeSubset : longitudinalAttributeSubsets)
 				{
-					tree.convertToBinaryTree();
+					DecisionTree tree = constructCandidateTree(dataset, subset, longitudinalAttributeSubset, splitCache);
+					double giniOfTree = ModelEvaluator.evaluatePredictionModelGini(tree, dataset, subset);
+					if(giniOfTree < bestGini)
+					{
+						bestGini = giniOfTree;
+						bestModel = tree;
+					}
 				}
-				double giniOfTree = ModelEvaluator.evaluatePredictionModelGini(tree, dataset, subset);
-				if(giniOfTree < bestGini)
+			}
+			else
+			{
+				// Candidate trees are independent, so they are constructed and scored in parallel
+				DecisionTree[] trees = new DecisionTree[longitudinalAttributeSubsets.length];
+				double[] ginisOfTrees = new double[longitudinalAttributeSubsets.length];
+				ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+				for(int groupIndex = 0; groupIndex < longitudinalAttributeSubsets.length; groupIndex++)
 				{
-					bestGini = giniOfTree;
-					bestModel = tree;
+					int taskGroupIndex = groupIndex;
+					tasks.add(ForkJoinTask.adapt(() -> {
+						trees[taskGroupIndex] = constructCandidateTree(dataset, subset, longitudinalAttributeSubsets[taskGroupIndex], splitCache);
+						ginisOfTrees[taskGroupIndex] = ModelEvaluator.evaluatePredictionModelGini(trees[taskGroupIndex], dataset, subset);
+					}));
 				}
+				ForkJoinTask.invokeAll(tasks);
+				
+				// The winner is chosen in group order, so ties go to the lowest group index as in the sequential construction
+				for(int groupIndex = 0; groupIndex < longitudinalAttributeSubsets.length; groupIndex++)
+					if(ginisOfTrees[groupIndex] < bestGini)
+					{
+						bestGini = ginisOfTrees[groupIndex];
+						bestModel = trees[groupIndex];
+					}
 			}
+		}
 		
 		bestModel.setParentNodeIndex(parentNodeIndex);
-		nodes.add(bestModel);
+		subtreeNodes.add(bestModel);
 		
 		// If the node has a single leaf - it is a leaf node, no further construction needed
 		if(bestModel.getNumberOfLeaves() == 1)
 			return;
 		
 		// If node has multiple leaves - break the current set into leaf subsets and construct a node for each
-		double[][] leafSubsets = bestModel.constructLeafSubsets(dataset, subset);
-		int currentNodeIndex = nodes.size();
+		Subset[] leafSubsets = bestModel.constructLeafSubsets(dataset, subset);
+		
+		// Large leaf subsets are constructed as parallel tasks into node lists of their own, which are appended in leaf order
+		ArrayList<ForkJoinTask<ArrayList<PredictionModel>>> subtreeTasks = new ArrayList<ForkJoinTask<ArrayList<PredictionModel>>>();
+		for(int leafIndex = 0; leafIndex < leafSubsets.length; leafIndex++)
+		{
+			ForkJoinTask<ArrayList<PredictionModel>> subtreeTask = null;
+			if(constructionPool != null && leafSubsets[leafIndex].size() >= DecisionTree.PARALLEL_SUBTREE_MIN_SIZE)
+			{
+				int taskLeafIndex = leafIndex;
+				subtreeTask = ForkJoinTask.adapt(() -> {
+					ArrayList<PredictionModel> taskNodes = new ArrayList<PredictionModel>();
+					constructNode(dataset, leafSubsets[taskLeafIndex], -1, maxDepth - 1, taskNodes);
+					return taskNodes;
+				}).fork();
+			}
+			subtreeTasks.add(subtreeTask);
+		}
+		
+		int currentNodeIndex = subtreeNodes.size();
 		for(int leafIndex = 0; leafIndex < leafSubsets.length; leafIndex++)
 		{
-			int nextNodeIndex = nodes.size();
-			constructNode(dataset, leafSubsets[leafIndex], currentNodeIndex, maxDepth - 1);
+			int nextNodeIndex = subtreeNodes.size();
+			if(subtreeTasks.get(leafIndex) == null)
+				constructNode(dataset, leafSubsets[leafIndex], currentNodeIndex, maxDepth - 1, subtreeNodes);
+			else
+				appendSubtreeNodes(subtreeNodes, subtreeTasks.get(leafIndex).join(), currentNodeIndex);
 			// Attach current node to each child node when it is constructed
 			bestModel.setLeafNextNodeIndex(leafIndex, nextNodeIndex);
 		}
 	}
 	
+	/*
+	 * Best-first bounded construction of the candidate trees, the candidate with the lowest Gini lower bound grows by one level at a time
+	 * Candidates are abandoned once their lower bound exceeds the Gini of the best model, as they could no longer beat it
+	 * The model chosen is the same as when all candidates are constructed in full, ties are won by the model given and then by the lowest group index
+	 */
+	private PredictionModel constructBestCandidateTree(Dataset dataset, Subset subset, boolean[][] longitudinalAttributeSubsets, SplitCache splitCache, double bestGini, PredictionModel bestModel)
+	{
+		DecisionTree[] trees = new DecisionTree[longitudinalAttributeSubsets.length];
+		for(int groupIndex = 0; groupIndex < longitudinalAttributeSubsets.length; groupIndex++)
+		{
+			trees[groupIndex] = newCandidateTree(longitudinalAttributeSubsets[groupIndex], splitCache);
+			trees[groupIndex].startBoundedConstruction(dataset, subset);
+		}
+		
+		int bestGroupIndex = -1;
+		while(true)
+		{
+			int groupIndex = -1;
+			for(int candidateGroupIndex = 0; candidateGroupIndex < trees.length; candidateGroupIndex++)
+				if(trees[candidateGroupIndex] != null)
+					if(groupIndex == -1 || trees[candidateGroupIndex].getGiniLowerBound() < trees[groupIndex].getGiniLowerBound())
+						groupIndex = candidateGroupIndex;
+			
+			// The remaining candidates all have a lower bound at least as high, none of them can beat the best model
+			if(groupIndex == -1 || trees[groupIndex].getGiniLowerBound() > bestGini + GINI_BOUND_TOLERANCE)
+				break;
+			
+			if(!trees[groupIndex].growLevel())
+				continue;
+			double giniOfTree = ModelEvaluator.evaluatePredictionModelGini(trees[groupIndex], dataset, subset);
+			if(giniOfTree < bestGini || (giniOfTree == bestGini && bestGroupIndex != -1 && groupIndex < bestGroupIndex))
+			{
+				bestGini = giniOfTree;
+				bestModel = trees[groupIndex];
+				bestGroupIndex = groupIndex;
+			}
+			trees[groupIndex] = null;
+		}
+		return bestModel;
+	}
+	
+	private DecisionTree constructCandidateTree(Dataset dataset, Subset subset, boolean[] longitudinalAttributeSubset, SplitCache splitCache)
+	{
+		DecisionTree tree = newCandidateTree(longitudinalAttributeSubset, splitCache);
+		// Subtrees of the candidate tree are forked into the pool the candidate trees are constructed on
+		tree.setConstructionPool(constructionPool);
+		tree.construct(dataset, subset);
+		if(binaryConversion)
+		{
+			tree.convertToBinaryTree();
+		}
+		return tree;
+	}
+	
+	private DecisionTree newCandidateTree(boolean[] longitudinalAttributeSubset, SplitCache splitCache)
+	{
+		DecisionTree tree = new DecisionTree();
+		tree.setAttributeFilter(longitudinalAttributeSubset);
+		tree.maxDepth = maxDepthNested;
+		tree.minNodeSize = minNodeSize;
+		tree.sortedPartitioning = sortedPartitioning;
+		tree.histogramSplits = histogramSplits;
+		tree.constructionParallelism = constructionParallelism;
+		tree.splitCache = splitCache;
+		return tree;
+	}
+	
 	public void convertToRegression()
 	{
 		this.regression = true;
@@ -143,8 +290,107 @@ public class NestedDecisionTree extends PredictionModel {
 			}
 	}
 	
+	/*
+	 * Flattens the nested tree into a single CompiledTree, into which the compiled inner trees are lowered as plain split nodes
+	 * The children of an inner tree that lead to its leaves lead directly to the outer node continuing from that leaf
+	 * Returns null, and the outer nodes are walked, if an inner model has no compiled form
+	 */
+	public CompiledTree compile()
+	{
+		compiledTree = null;
+		for(PredictionModel node : nodes)
+			if(node.getNumberOfLeaves() != 1 && (!(node instanceof DecisionTree) || ((DecisionTree)node).getCompiledTree() == null))
+				return null;
+		
+		CompiledTree flattenedTree = new CompiledTree(leafPredictions);
+		int[] loweredNodes = new int[nodes.size()];
+		boolean[] nodeLowered = new boolean[nodes.size()];
+		flattenedTree.setRoot(lowerNode(0, flattenedTree, loweredNodes, nodeLowered));
+		flattenedTree.trim();
+		compiledTree = flattenedTree;
+		return compiledTree;
+	}
+	
+	/*
+	 * Returns the child of the flattened tree that the outer node is lowered to, outer leaves become ~modelLeafIndex
+	 */
+	private int lowerNode(int nodeIndex, CompiledTree flattenedTree, int[] loweredNodes, boolean[] nodeLowered)
+	{
+		if(nodeLowered[nodeIndex])
+			return loweredNodes[nodeIndex];
+		
+		PredictionModel node = nodes.get(nodeIndex);
+		int loweredNode;
+		if(node.getNumberOfLeaves() == 1)
+			loweredNode = ~treeToModelLeafIndexes[nodeIndex];
+		else
+		{
+			CompiledTree innerTree = ((DecisionTree)node).getCompiledTree();
+			int firstNode = flattenedTree.addNodes(innerTree.size());
+			for(int innerNode = 0; innerNode < innerTree.size(); innerNode++)
+				flattenedTree.setNode(firstNode + innerNode, innerTree.getAttributeIndex(innerNode), innerTree.getThreshold(innerNode),
+						lowerChild(node, innerTree.getLeftChild(innerNode), firstNode, flattenedTree, loweredNodes, nodeLowered),
+						lowerChild(node, innerTree.getRightChild(innerNode), firstNode, flattenedTree, loweredNodes, nodeLowered),
+						lowerChild(node, innerTree.getMissingChild(innerNode), firstNode, flattenedTree, loweredNodes, nodeLowered));
+			loweredNode = lowerChild(node, innerTree.getRoot(), firstNode, flattenedTree, loweredNodes, nodeLowered);
+		}
+		
+		loweredNodes[nodeIndex] = loweredNode;
+		nodeLowered[nodeIndex] = true;
+		return loweredNode;
+	}
+	
+	private int lowerChild(PredictionModel node, int innerChild, int firstNode, CompiledTree flattenedTree, int[] loweredNodes, boolean[] nodeLowered)
+	{
+		if(innerChild >= 0)
+			return firstNode + innerChild;
+		return lowerNode(node.getLeafNextNodeIndex(~innerChild), flattenedTree, loweredNodes, nodeLowered);
+	}
+	
+	public CompiledTree getCompiledTree()
+	{
+		return compiledTree;
+	}
+	
+	/*
+	 * Generates a class from the compiled tree, through which its batch predictions on columnar datasets are then made, see CompiledTree.generatePredictor
+	 */
+	public void generatePredictor()
+	{
+		if(compiledTree != null)
+			compiledTree.generatePredictor();
+	}
+	
 	@Override
 	public int predictAsLeafIndex(Dataset dataset, int instanceIndex)
+	{
+		if(compiledTree != null)
+			return compiledTree.predictAsLeafIndex(dataset, instanceIndex);
+		return interpretAsLeafIndex(dataset, instanceIndex);
+	}
+	
+	@Override
+	public void predictAsLeafIndexes(Dataset dataset, int[] instanceIndexes, int numberOfInstances, int[] leafIndexes)
+	{
+		if(compiledTree != null)
+			compiledTree.predictAsLeafIndexes(dataset, instanceIndexes, numberOfInstances, leafIndexes);
+		else
+			super.predictAsLeafIndexes(dataset, instanceIndexes, numberOfInstances, leafIndexes);
+	}
+	
+	@Override
+	public void predict(Dataset dataset, int[] instanceIndexes, int numberOfInstances, double[] predictions)
+	{
+		if(compiledTree != null)
+			compiledTree.predict(dataset, instanceIndexes, numberOfInstances, predictions);
+		else
+			super.predict(dataset, instanceIndexes, numberOfInstances, predictions);
+	}
+	
+	/*
+	 * Walks the outer nodes, the compiled tree must predict the same leaf indexes
+	 */
+	public int interpretAsLeafIndex(Dataset dataset, int instanceIndex)
 	{
 		// Start at root node
 		int currentIndex = 0;
@@ -252,6 +498,7 @@ public class NestedDecisionTree extends PredictionModel {
 		ArrayList<PredictionModel> newNodes = new ArrayList<PredictionModel>();
 		cleanUpTree(newNodes, 0);
 		this.nodes = newNodes;
+		compiledTree = null;
 	}
 	
 	public void cleanUpTree(ArrayList<PredictionModel> nodes2, int index)
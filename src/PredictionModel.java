@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+
 /*
  * PredictionModel abstract class for creating prediction models
  * 
@@ -10,7 +12,7 @@ public abstract class PredictionModel {
 	
 	// Construction attributes
 	protected Dataset datasetUsed;
-	protected double[] subsetUsed;
+	protected Subset subsetUsed;
 	protected boolean regression;
 	protected boolean regressionThreshold;
 	
@@ -19,6 +21,10 @@ public abstract class PredictionModel {
 	protected int numberOfLeaves;
 	protected double[] leafPredictions;
 	
+	// Weighted class counts of each leaf, for the subset the leaf predictions were initialised on
+	protected double[][] leafClassCounts;
+	protected Subset leafClassCountsSubset;
+	
 	// Model connectivity attributes
 	protected int parentNodeIndex;
 	protected int[] leafNextNodeIndexes;
@@ -33,9 +39,13 @@ public abstract class PredictionModel {
 	// Model construction
 	public void construct(Dataset dataset)
 	{
-		construct(dataset, null);
+		construct(dataset, Subset.fromDense(null, dataset.getNumberOfInstances()));
+	}
+	public void construct(Dataset dataset, double[] subset)
+	{
+		construct(dataset, Subset.fromDense(subset, dataset.getNumberOfInstances()));
 	}
-	public abstract void construct(Dataset dataset, double[] subset);
+	public abstract void construct(Dataset dataset, Subset subset);
 	
 	// Instance class prediction
 	public double predict(Dataset dataset, int instanceIndex)
@@ -63,43 +73,52 @@ public abstract class PredictionModel {
 	
 	public double[] predict(Dataset dataset, double[] subset)
 	{
+		int[] instanceIndexes = Util.nonZeroIndexes(subset, dataset.getNumberOfInstances());
+		double[] memberPredictions = new double[instanceIndexes.length];
+		predict(dataset, instanceIndexes, instanceIndexes.length, memberPredictions);
+		
 		double[] predictions = new double[dataset.getNumberOfInstances()];
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-		{
-			if(subset != null)
-				if(subset[instanceIndex] == 0.0)
-					continue;
-			predictions[instanceIndex] = predict(dataset, instanceIndex);
-		}
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
+			predictions[instanceIndexes[memberIndex]] = memberPredictions[memberIndex];
 		return predictions;
 	}
 	
+	/*
+	 * Batch prediction, writes the prediction of instance instanceIndexes[i] to predictions[i] for the first numberOfInstances instances
+	 * Trees route blocks of instances down their nodes, other models predict the instances one by one
+	 */
+	public void predict(Dataset dataset, int[] instanceIndexes, int numberOfInstances, double[] predictions)
+	{
+		for(int index = 0; index < numberOfInstances; index++)
+			predictions[index] = predict(dataset, instanceIndexes[index]);
+	}
+	
 	public abstract double[] predictRawRegression(Dataset dataset, double[] subset);
 	public abstract double predictRawRegression(Dataset dataset, int instanceIndex);
 	
 	public double[] predict(Dataset dataset, double[] subset, double threshold)
 	{
+		int[] instanceIndexes = Util.nonZeroIndexes(subset, dataset.getNumberOfInstances());
+		double[] memberPredictions = new double[instanceIndexes.length];
+		predict(dataset, instanceIndexes, instanceIndexes.length, memberPredictions);
+		
+		double[] uniqueClassValues = dataset.getUniqueClassValues();
+		double[] thresholds = Util.thresholds(uniqueClassValues, threshold);
 		double[] predictions = new double[dataset.getNumberOfInstances()];
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-		{
-			if(subset != null)
-				if(subset[instanceIndex] == 0.0)
-					continue;
-			predictions[instanceIndex] = predict(dataset, instanceIndex, threshold);
-		}
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
+			predictions[instanceIndexes[memberIndex]] = uniqueClassValues[Util.indexOfTheHighestBelowOrEqual(thresholds, memberPredictions[memberIndex])];
 		return predictions;
 	}
 	
 	public double[] predictBinary(Dataset dataset, double[] subset, double threshold)
 	{
+		int[] instanceIndexes = Util.nonZeroIndexes(subset, dataset.getNumberOfInstances());
+		double[] memberPredictions = new double[instanceIndexes.length];
+		predict(dataset, instanceIndexes, instanceIndexes.length, memberPredictions);
+		
 		double[] predictions = new double[dataset.getNumberOfInstances()];
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-		{
-			if(subset != null)
-				if(subset[instanceIndex] == 0.0)
-					continue;
-			predictions[instanceIndex] = predictBinary(dataset, instanceIndex, threshold);
-		}
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
+			predictions[instanceIndexes[memberIndex]] = memberPredictions[memberIndex] <= threshold ? 0.0 : 1.0;
 		return predictions;
 	}
 	
@@ -107,15 +126,23 @@ public abstract class PredictionModel {
 	public abstract int predictAsLeafIndex(Dataset dataset, int instanceIndex);
 	public int[] predictAsLeafIndexes(Dataset dataset, double[] subset)
 	{
+		int[] instanceIndexes = Util.nonZeroIndexes(subset, dataset.getNumberOfInstances());
+		int[] memberLeafIndexes = new int[instanceIndexes.length];
+		predictAsLeafIndexes(dataset, instanceIndexes, instanceIndexes.length, memberLeafIndexes);
+		
 		int[] leafIndexes = new int[dataset.getNumberOfInstances()];
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
-		{
-			if(subset != null)
-				if(subset[instanceIndex] == 0.0)
-					continue;
-			leafIndexes[instanceIndex] = predictAsLeafIndex(dataset, instanceIndex);
-		}
-		return leafIndexes;		
+		for(int memberIndex = 0; memberIndex < instanceIndexes.length; memberIndex++)
+			leafIndexes[instanceIndexes[memberIndex]] = memberLeafIndexes[memberIndex];
+		return leafIndexes;
+	}
+	
+	/*
+	 * Batch leaf prediction, writes the leaf index of instance instanceIndexes[i] to leafIndexes[i] for the first numberOfInstances instances
+	 */
+	public void predictAsLeafIndexes(Dataset dataset, int[] instanceIndexes, int numberOfInstances, int[] leafIndexes)
+	{
+		for(int index = 0; index < numberOfInstances; index++)
+			leafIndexes[index] = predictAsLeafIndex(dataset, instanceIndexes[index]);
 	}
 	
 	public int predictAsNextNodeIndex(Dataset dataset, int instanceIndex)
@@ -124,25 +151,17 @@ public abstract class PredictionModel {
 	}
 	
 	// Leaf subset prediction
-	public double[][] constructLeafSubsets(Dataset dataset, double[] subset)
+	public Subset[] constructLeafSubsets(Dataset dataset, Subset subset)
 	{
-		double[][] leafSubsets = new double[numberOfLeaves][];
+		Subset[] leafSubsets = new Subset[numberOfLeaves];
 		
 		for(int leafIndex = 0; leafIndex < numberOfLeaves; leafIndex++)
-			leafSubsets[leafIndex] = new double[dataset.getNumberOfInstances()];
+			leafSubsets[leafIndex] = new Subset(dataset.getNumberOfInstances(), subset.size());
 		
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
 		{
-			if(subset != null)
-			{
-				if(subset[instanceIndex] == 0.0)
-					continue;
-				leafSubsets[predictAsLeafIndex(dataset, instanceIndex)][instanceIndex] = subset[instanceIndex];
-			}
-			else
-			{
-				leafSubsets[predictAsLeafIndex(dataset, instanceIndex)][instanceIndex] = 1.0;
-			}	
+			int instanceIndex = subset.getInstanceIndex(memberIndex);
+			leafSubsets[predictAsLeafIndex(dataset, instanceIndex)].add(instanceIndex, subset.getWeight(memberIndex));
 		}
 		return leafSubsets;
 	}
@@ -220,7 +239,7 @@ public abstract class PredictionModel {
 		return datasetUsed;
 	}
 	
-	public double[] getSubsetUsed()
+	public Subset getSubsetUsed()
 	{
 		return subsetUsed;
 	}
@@ -231,13 +250,10 @@ public abstract class PredictionModel {
 	 * Once the predictAsLeafIndex method is defined and the model is constructed, this method can be used
 	 * to initialise leaf predictions as well as the default prediction
 	 */
-	public void initialiseLeafPredictions(Dataset dataset, double[] subset)
+	public void initialiseLeafPredictions(Dataset dataset, Subset subset)
 	{
 		leafPredictions = new double[numberOfLeaves];
 		
-		// Predict all valid instances as leaves to calculate leaf predictions and default prediction
-		int[] leafIndexPredictions = predictAsLeafIndexes(dataset, subset);
-		
 		double[] countLeafInstances = new double[numberOfLeaves];
 		
 		double[][] leafClassFrequencies = new double[numberOfLeaves][];
@@ -245,24 +261,16 @@ public abstract class PredictionModel {
 		for(int leafIndex = 0; leafIndex < numberOfLeaves; leafIndex++)
 			leafClassFrequencies[leafIndex] = new double[dataset.getUniqueClassValues().length];
 		
-		// Calculate how often each class appears in each leaf
-		for(int instanceIndex = 0; instanceIndex < dataset.getNumberOfInstances(); instanceIndex++)
+		int[] classIndexes = dataset.getClassIndexes();
+		
+		// Predict all members as leaves and calculate how often each class appears in each leaf
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
 		{
-			if(subset != null)
-			{
-				if(subset[instanceIndex] == 0.0)
-					continue;
-				else
-				{
-					countLeafInstances[leafIndexPredictions[instanceIndex]] += subset[instanceIndex];
-					leafClassFrequencies[leafIndexPredictions[instanceIndex]][Util.indexOf(dataset.getValue(instanceIndex, dataset.getClassAttributeIndex()), dataset.getUniqueClassValues())] += subset[instanceIndex];
-				}
-			}
-			else
-			{
-				countLeafInstances[leafIndexPredictions[instanceIndex]] += 1.0;
-				leafClassFrequencies[leafIndexPredictions[instanceIndex]][Util.indexOf(dataset.getValue(instanceIndex, dataset.getClassAttributeIndex()), dataset.getUniqueClassValues())] += 1.0;
-			}
+			int instanceIndex = subset.getInstanceIndex(memberIndex);
+			double weight = subset.getWeight(memberIndex);
+			int leafIndex = predictAsLeafIndex(dataset, instanceIndex);
+			countLeafInstances[leafIndex] += weight;
+			leafClassFrequencies[leafIndex][classIndexes[instanceIndex]] += weight;
 		}
 		
 		// Assign leaf predictions based on most common classes in each leaf
@@ -283,32 +291,52 @@ public abstract class PredictionModel {
 		}
 		else
 			defaultPrediction = leafPredictions[Util.maxIndex(leafClassFrequenciesSums)];
+		
+		leafClassCounts = leafClassFrequencies;
+		leafClassCountsSubset = subset;
+	}
+	
+	/*
+	 * Returns the weighted class counts of each leaf, or null if they were not counted on the given subset
+	 */
+	public double[][] getLeafClassCounts(Subset subset)
+	{
+		if(subset != leafClassCountsSubset)
+			return null;
+		return leafClassCounts;
 	}
 	
 	public abstract int size();
 	
-	public static double generateDefaultRegressionPrediction(Dataset dataset, double[] subset)
+	/*
+	 * Appends the nodes of a subtree constructed into a node list of its own, node indexes within the subtree are shifted
+	 * by the position the subtree starts at and the parent of the subtree root is set to parentNodeIndex
+	 */
+	protected static void appendSubtreeNodes(ArrayList<PredictionModel> nodes, ArrayList<PredictionModel> subtreeNodes, int parentNodeIndex)
 	{
-		double[] classValues = dataset.getClassValues();
+		int offset = nodes.size();
+		for(int subtreeNodeIndex = 0; subtreeNodeIndex < subtreeNodes.size(); subtreeNodeIndex++)
+		{
+			PredictionModel node = subtreeNodes.get(subtreeNodeIndex);
+			if(subtreeNodeIndex == 0)
+				node.setParentNodeIndex(parentNodeIndex);
+			else
+				node.setParentNodeIndex(node.parentNodeIndex + offset);
+			if(node.getNumberOfLeaves() != 1)
+				for(int leafIndex = 0; leafIndex < node.getNumberOfLeaves(); leafIndex++)
+					node.setLeafNextNodeIndex(leafIndex, node.getLeafNextNodeIndex(leafIndex) + offset);
+			nodes.add(node);
+		}
+	}
+	
+	public static double generateDefaultRegressionPrediction(Dataset dataset, Subset subset)
+	{
+		int[] classIndexes = dataset.getClassIndexes();
 		double[] uniqueClassValues = dataset.getUniqueClassValues();
 		double[] countClasses = new double[uniqueClassValues.length];
 		
-		for(int instanceIndex = 0; instanceIndex < classValues.length; instanceIndex++)
-		{
-			if(subset != null)
-				if(subset[instanceIndex] == 0.0) continue;
-			for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
-			{
-				if(uniqueClassValues[classValueIndex] == classValues[instanceIndex])
-				{
-					if(subset != null)
-						countClasses[classValueIndex] += subset[instanceIndex];
-					else
-						countClasses[classValueIndex] += 1.0;;
-					break;
-				}
-			}
-		}
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
+			countClasses[classIndexes[subset.getInstanceIndex(memberIndex)]] += subset.getWeight(memberIndex);
 		double defaultPrediction = Util.averageOfDistribution(countClasses, uniqueClassValues);
 		return defaultPrediction;
 	}
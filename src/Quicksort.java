@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 public class Quicksort
 {
 	public static int partition(double arr[], int low, int high)
@@ -21,13 +23,22 @@ public class Quicksort
         return i+1;
     }
 
+    // Recurses into the smaller part and loops on the larger one, so arrays with many equal values can not overflow the stack
     public static void sort(double arr[], int low, int high)
     {
-        if(low < high)
+        while(low < high)
         {
             int pi = partition(arr, low, high);
-            sort(arr, low, pi-1);
-            sort(arr, pi+1, high);
+            if(pi - low < high - pi)
+            {
+                sort(arr, low, pi-1);
+                low = pi+1;
+            }
+            else
+            {
+                sort(arr, pi+1, high);
+                high = pi-1;
+            }
         }
     }
     
@@ -223,4 +234,61 @@ public class Quicksort
     	}     
     	return arr;
     }
+    
+    /*
+     * Returns the original indexes of the values in ascending order of the values, ties keep their original order
+     * Least significant digit radix sort on the bit patterns of the values, 16 bits per pass
+     * It runs in linear time for sorted, constant and missing-heavy values alike and does not recurse
+     */
+    public static int[] sortIndexes(double[] values)
+    {
+    	int n = values.length;
+    	long[] keys = new long[n];
+    	long[] keysBuffer = new long[n];
+    	int[] indexes = new int[n];
+    	int[] indexesBuffer = new int[n];
+    	int[] digitPositions = new int[1 << 16];
+    	
+    	// Flip all bits of negative values and the sign bit of the others so that the keys order as unsigned integers
+    	for(int i = 0; i < n; i++)
+    	{
+    		long bits = Double.doubleToLongBits(values[i]);
+    		keys[i] = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    		indexes[i] = i;
+    	}
+    	
+    	for(int shift = 0; shift < 64 && n > 0; shift += 16)
+    	{
+    		Arrays.fill(digitPositions, 0);
+    		for(int i = 0; i < n; i++)
+    			digitPositions[(int)(keys[i] >>> shift) & 0xFFFF]++;
+    		
+    		// Skip the pass if all keys share this digit
+    		if(digitPositions[(int)(keys[0] >>> shift) & 0xFFFF] == n)
+    			continue;
+    		
+    		int position = 0;
+    		for(int digit = 0; digit < digitPositions.length; digit++)
+    		{
+    			int count = digitPositions[digit];
+    			digitPositions[digit] = position;
+    			position += count;
+    		}
+    		for(int i = 0; i < n; i++)
+    		{
+    			int digit = (int)(keys[i] >>> shift) & 0xFFFF;
+    			keysBuffer[digitPositions[digit]] = keys[i];
+    			indexesBuffer[digitPositions[digit]] = indexes[i];
+    			digitPositions[digit]++;
+    		}
+    		
+    		long[] tempKeys = keys;
+    		keys = keysBuffer;
+    		keysBuffer = tempKeys;
+    		int[] tempIndexes = indexes;
+    		indexes = indexesBuffer;
+    		indexesBuffer = tempIndexes;
+    	}
+    	return indexes;
+    }
 }     
@@ -0,0 +1,78 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Best splits of the attributes of a subset, shared by the trees constructed on the same subset so that each attribute
+ * is searched at most once per subset
+ *
+ * The cache of the subset of a tree node has a child cache for each leaf subset of the rules chosen on it, trees choosing
+ * the same rule partition the subset into the same leaf subsets and so share their splits below the node as well
+ * Splits are stored as returned by DecisionRule.searchAttribute, the cache can be used by trees constructed in parallel without locking
+ */
+public class SplitCache {
+	
+	private AtomicReferenceArray<double[]> splits;
+	private ConcurrentHashMap<LeafKey, SplitCache> leafCaches = new ConcurrentHashMap<LeafKey, SplitCache>();
+	
+	public SplitCache(int numberOfAttributes)
+	{
+		splits = new AtomicReferenceArray<double[]>(numberOfAttributes);
+	}
+	
+	/*
+	 * Returns null if the attribute has not been searched on the subset
+	 */
+	public double[] get(int attributeIndex)
+	{
+		return splits.get(attributeIndex);
+	}
+	
+	/*
+	 * Trees searching the same attribute at once find the same split, either can be kept
+	 */
+	public void put(int attributeIndex, double[] split)
+	{
+		splits.set(attributeIndex, split);
+	}
+	
+	/*
+	 * Cache of the leaf subset of a rule constructed on the subset
+	 */
+	public SplitCache getLeafCache(DecisionRule rule, int leafIndex)
+	{
+		LeafKey key = new LeafKey(rule.getAttributeIndex(), rule.getThreshold(), leafIndex);
+		return leafCaches.computeIfAbsent(key, leafKey -> new SplitCache(splits.length()));
+	}
+	
+	/*
+	 * Leaf subsets only depend on the attribute and threshold of the rule, missing values are split between all leaves
+	 */
+	private static class LeafKey
+	{
+		private int attributeIndex;
+		private long thresholdBits;
+		private int leafIndex;
+		
+		private LeafKey(int attributeIndex, double threshold, int leafIndex)
+		{
+			this.attributeIndex = attributeIndex;
+			this.thresholdBits = Double.doubleToLongBits(threshold);
+			this.leafIndex = leafIndex;
+		}
+		
+		@Override
+		public boolean equals(Object other)
+		{
+			if(!(other instanceof LeafKey))
+				return false;
+			LeafKey otherKey = (LeafKey)other;
+			return attributeIndex == otherKey.attributeIndex && thresholdBits == otherKey.thresholdBits && leafIndex == otherKey.leafIndex;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return (31 * attributeIndex + Long.hashCode(thresholdBits)) * 31 + leafIndex;
+		}
+	}
+}
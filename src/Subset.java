@@ -0,0 +1,266 @@
+import java.util.Arrays;
+
+/*
+ * Subset of the instances of a dataset, stored as the indexes of its member instances and their weights
+ *
+ * Member indexes are kept in ascending order, so iterating the members visits the instances in the same order
+ * as a loop over a dense double[] subset of length numberOfInstances in which non-members have a weight of 0.0
+ * Sums and counts accumulated over the members are therefore identical to those of the dense representation
+ *
+ * A subset can also carry, for each attribute, its member indexes in the sorted order of that attribute
+ * These are partitioned into the subsets of child nodes, so a tree node never has to re-derive them
+ */
+public class Subset {
+	
+	private int numberOfInstances;
+	private int size;
+	private int[] instanceIndexes;
+	private double[] weights;
+	private int[][] attributeOrders;
+	
+	public Subset(int numberOfInstances, int capacity)
+	{
+		this.numberOfInstances = numberOfInstances;
+		this.instanceIndexes = new int[Math.max(capacity, 1)];
+		this.weights = new double[Math.max(capacity, 1)];
+	}
+	
+	/*
+	 * A null dense subset represents all instances with a weight of 1.0
+	 */
+	public static Subset fromDense(double[] subset, int numberOfInstances)
+	{
+		if(subset == null)
+		{
+			Subset fullSubset = new Subset(numberOfInstances, numberOfInstances);
+			for(int instanceIndex = 0; instanceIndex < numberOfInstances; instanceIndex++)
+				fullSubset.add(instanceIndex, 1.0);
+			return fullSubset;
+		}
+		
+		int size = 0;
+		for(double weight : subset)
+			if(weight != 0.0)
+				size++;
+		Subset sparseSubset = new Subset(numberOfInstances, size);
+		for(int instanceIndex = 0; instanceIndex < subset.length; instanceIndex++)
+			if(subset[instanceIndex] != 0.0)
+				sparseSubset.add(instanceIndex, subset[instanceIndex]);
+		return sparseSubset;
+	}
+	
+	public double[] toDense()
+	{
+		double[] subset = new double[numberOfInstances];
+		for(int memberIndex = 0; memberIndex < size; memberIndex++)
+			subset[instanceIndexes[memberIndex]] = weights[memberIndex];
+		return subset;
+	}
+	
+	/*
+	 * Members must be added in ascending order of instance indexes, with a non-zero weight
+	 */
+	public void add(int instanceIndex, double weight)
+	{
+		if(size == instanceIndexes.length)
+		{
+			instanceIndexes = Arrays.copyOf(instanceIndexes, size * 2);
+			weights = Arrays.copyOf(weights, size * 2);
+		}
+		instanceIndexes[size] = instanceIndex;
+		weights[size] = weight;
+		size++;
+	}
+	
+	/*
+	 * Equivalent of Util.subtract on the dense representations, instances whose weights cancel out are not members of the result
+	 */
+	public Subset subtract(Subset other)
+	{
+		Subset difference = new Subset(numberOfInstances, size + other.size);
+		int memberIndex = 0;
+		int otherMemberIndex = 0;
+		while(memberIndex < size || otherMemberIndex < other.size)
+		{
+			int instanceIndex;
+			double weight;
+			if(otherMemberIndex == other.size || (memberIndex < size && instanceIndexes[memberIndex] < other.instanceIndexes[otherMemberIndex]))
+			{
+				instanceIndex = instanceIndexes[memberIndex];
+				weight = weights[memberIndex++];
+			}
+			else if(memberIndex == size || other.instanceIndexes[otherMemberIndex] < instanceIndexes[memberIndex])
+			{
+				instanceIndex = other.instanceIndexes[otherMemberIndex];
+				weight = 0.0 - other.weights[otherMemberIndex++];
+			}
+			else
+			{
+				instanceIndex = instanceIndexes[memberIndex];
+				weight = weights[memberIndex++] - other.weights[otherMemberIndex++];
+			}
+			if(weight != 0.0)
+				difference.add(instanceIndex, weight);
+		}
+		return difference;
+	}
+	
+	/*
+	 * True when sorting the members costs less than walking the sorted order of all instances
+	 */
+	public boolean isSparse()
+	{
+		return (long)size * (32 - Integer.numberOfLeadingZeros(size)) < numberOfInstances;
+	}
+	
+	/*
+	 * Returns the member indexes ordered by the given rank of their instances, such as the position of the instance
+	 * in the sorted order of an attribute, ranks must be unique and non-negative
+	 */
+	public int[] orderMembers(int[] instanceRanks)
+	{
+		long[] keys = new long[size];
+		for(int memberIndex = 0; memberIndex < size; memberIndex++)
+			keys[memberIndex] = ((long)instanceRanks[instanceIndexes[memberIndex]] << 32) | memberIndex;
+		Arrays.sort(keys);
+		int[] order = new int[size];
+		for(int position = 0; position < size; position++)
+			order[position] = (int)keys[position];
+		return order;
+	}
+	
+	/*
+	 * Returns a copy of this subset carrying the member order of each attribute that is not filtered out, the id or the class attribute
+	 */
+	public Subset withAttributeOrders(Dataset dataset, boolean[] attributeFilter)
+	{
+		Subset orderedSubset = new Subset(numberOfInstances, size);
+		System.arraycopy(instanceIndexes, 0, orderedSubset.instanceIndexes, 0, size);
+		System.arraycopy(weights, 0, orderedSubset.weights, 0, size);
+		orderedSubset.size = size;
+		orderedSubset.attributeOrders = new int[dataset.getNumberOfAttributes()][];
+		
+		if(!dataset.preSorted())
+			dataset.preSort();
+		
+		// Large subsets pick their members out of the sorted order of all instances instead of sorting them
+		int[] instanceMemberIndexes = null;
+		if(!isSparse())
+		{
+			instanceMemberIndexes = new int[numberOfInstances];
+			Arrays.fill(instanceMemberIndexes, -1);
+			for(int memberIndex = 0; memberIndex < size; memberIndex++)
+				instanceMemberIndexes[instanceIndexes[memberIndex]] = memberIndex;
+		}
+		
+		for(int attributeIndex = 0; attributeIndex < dataset.getNumberOfAttributes(); attributeIndex++)
+		{
+			if(dataset.getClassAttributeIndex() == attributeIndex || dataset.getIdAttributeIndex() == attributeIndex)
+				continue;
+			if(attributeFilter != null && !attributeFilter[attributeIndex])
+				continue;
+			
+			if(instanceMemberIndexes == null)
+			{
+				orderedSubset.attributeOrders[attributeIndex] = orderMembers(dataset.getOriginalToSortedIndexes(attributeIndex));
+				continue;
+			}
+			int[] sortedToOriginalIndexes = dataset.getSortedToOriginalIndexes(attributeIndex);
+			int[] order = new int[size];
+			int position = 0;
+			for(int sortedIndex = 0; sortedIndex < numberOfInstances; sortedIndex++)
+			{
+				int memberIndex = instanceMemberIndexes[sortedToOriginalIndexes[sortedIndex]];
+				if(memberIndex != -1)
+					order[position++] = memberIndex;
+			}
+			orderedSubset.attributeOrders[attributeIndex] = order;
+		}
+		return orderedSubset;
+	}
+	
+	/*
+	 * Stably partitions the attribute orders of this subset into the given subsets, which may only contain members of this subset
+	 * Members split between several subsets, such as those with missing values, are placed in the orders of each of them
+	 */
+	public void partitionAttributeOrders(Subset[] childSubsets)
+	{
+		int[] childMemberIndexes = new int[size];
+		for(Subset childSubset : childSubsets)
+		{
+			// Both member lists are in ascending order of instance indexes, so they can be matched in a single pass
+			int childMemberIndex = 0;
+			for(int memberIndex = 0; memberIndex < size; memberIndex++)
+			{
+				if(childMemberIndex < childSubset.size && childSubset.instanceIndexes[childMemberIndex] == instanceIndexes[memberIndex])
+					childMemberIndexes[memberIndex] = childMemberIndex++;
+				else
+					childMemberIndexes[memberIndex] = -1;
+			}
+			
+			childSubset.attributeOrders = new int[attributeOrders.length][];
+			for(int attributeIndex = 0; attributeIndex < attributeOrders.length; attributeIndex++)
+			{
+				if(attributeOrders[attributeIndex] == null)
+					continue;
+				int[] order = new int[childSubset.size];
+				int position = 0;
+				for(int memberIndex : attributeOrders[attributeIndex])
+					if(childMemberIndexes[memberIndex] != -1)
+						order[position++] = childMemberIndexes[memberIndex];
+				childSubset.attributeOrders[attributeIndex] = order;
+			}
+		}
+	}
+	
+	public boolean hasAttributeOrders()
+	{
+		return attributeOrders != null;
+	}
+	
+	/*
+	 * Returns null if the subset does not carry the order of the attribute
+	 */
+	public int[] getAttributeOrder(int attributeIndex)
+	{
+		if(attributeOrders == null)
+			return null;
+		return attributeOrders[attributeIndex];
+	}
+	
+	/*
+	 * Attribute orders are only needed until the node using the subset is split, releasing them keeps constructed trees small
+	 */
+	public void clearAttributeOrders()
+	{
+		attributeOrders = null;
+	}
+	
+	public double sumOfWeights()
+	{
+		double sum = 0.0;
+		for(int memberIndex = 0; memberIndex < size; memberIndex++)
+			sum += weights[memberIndex];
+		return sum;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public int getNumberOfInstances()
+	{
+		return numberOfInstances;
+	}
+	
+	public int getInstanceIndex(int memberIndex)
+	{
+		return instanceIndexes[memberIndex];
+	}
+	
+	public double getWeight(int memberIndex)
+	{
+		return weights[memberIndex];
+	}
+}
@@ -0,0 +1,10 @@
+/*
+ * Base class of the predictors generated from compiled trees by TreePredictorGenerator
+ */
+public abstract class TreePredictor {
+	
+	/*
+	 * Returns the leaf index of the instance, columns only need to hold the attributes tested by the tree
+	 */
+	public abstract int predictAsLeafIndex(double[][] columns, int instanceIndex, double missingValue);
+}
@@ -0,0 +1,528 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Generates a TreePredictor class whose predictAsLeafIndex method hard-codes the nodes of a CompiledTree as branches
+ *
+ * The class file is written directly in version 49, which is verified without stack map frames, and each class is
+ * defined by its own class loader so that it is unloaded together with its tree
+ * The code of a node loads the value of its attribute, branches to the code of its children and leaves return their leaf index
+ * Large trees are split into private methods of subtrees, which return the leaf index found in the subtree
+ */
+public class TreePredictorGenerator {
+	
+	// HotSpot does not compile methods of more than 8000 bytes (HugeMethodLimit), so larger subtrees get methods of their own
+	private static final int MAX_METHOD_CODE_LENGTH = 8000;
+	// Longest code of a node: its tests and a call for each child
+	private static final int MAX_NODE_CODE_LENGTH = 61;
+	// Limit of the class file format, larger trees are left to the array walk of CompiledTree
+	private static final int MAX_CONSTANT_POOL_SIZE = 65535;
+	
+	// Limit of the class file format on the number of methods of a class
+	private static final int MAX_METHODS = 65535;
+	
+	// Access flags of the generated methods
+	private static final int PUBLIC = 0x0001;
+	private static final int PRIVATE = 0x0002;
+	
+	// Local variables of the generated methods
+	private static final int COLUMNS_LOCAL = 1;
+	private static final int INSTANCE_INDEX_LOCAL = 2;
+	private static final int MISSING_VALUE_LOCAL = 3;
+	private static final int VALUE_LOCAL = 5;
+	
+	// Opcodes used by the generated code
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int LDC2_W = 0x14;
+	private static final int DLOAD = 0x18;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int DALOAD = 0x31;
+	private static final int AALOAD = 0x32;
+	private static final int DSTORE = 0x39;
+	private static final int DCMPL = 0x97;
+	private static final int DCMPG = 0x98;
+	private static final int IFEQ = 0x99;
+	private static final int IFGT = 0x9d;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int GOTO_W = 0xc8;
+	
+	private static final AtomicInteger numberOfGeneratedClasses = new AtomicInteger();
+	
+	private CompiledTree tree;
+	
+	// Constant pool, entries are numbered from 1 and doubles take two entries
+	private ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+	private DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+	private int constantPoolSize = 1;
+	private HashMap<Long, Integer> doubleConstants = new HashMap<Long, Integer>();
+	private HashMap<Integer, Integer> intConstants = new HashMap<Integer, Integer>();
+	
+	private byte[] code = new byte[1024];
+	private int codeLength = 0;
+	
+	private TreePredictorGenerator(CompiledTree tree)
+	{
+		this.tree = tree;
+	}
+	
+	/*
+	 * Returns null if the tree is too large for the method of a class file
+	 */
+	public static TreePredictor generate(CompiledTree tree)
+	{
+		String className = "GeneratedTreePredictor" + numberOfGeneratedClasses.incrementAndGet();
+		byte[] classBytes;
+		try {
+			classBytes = new TreePredictorGenerator(tree).writeClass(className);
+		} catch (IOException e) {
+			System.out.println("Error writing class " + className);
+			e.printStackTrace();
+			return null;
+		}
+		if(classBytes == null)
+			return null;
+		
+		try {
+			Class<?> predictorClass = new PredictorClassLoader().define(className, classBytes);
+			return (TreePredictor)predictorClass.getConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			System.out.println("Error loading class " + className);
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	private byte[] writeClass(String className) throws IOException
+	{
+		int classIndex = addClass(className);
+		int superClassIndex = addClass(TreePredictor.class.getName());
+		int constructorNameIndex = addUtf8("<init>");
+		int constructorDescriptorIndex = addUtf8("()V");
+		int superConstructorIndex = addMethodref(superClassIndex, constructorNameIndex, constructorDescriptorIndex);
+		int methodNameIndex = addUtf8("predictAsLeafIndex");
+		int methodDescriptorIndex = addUtf8("([[DID)I");
+		int codeAttributeIndex = addUtf8("Code");
+		
+		// Code of the methods, the first one is predictAsLeafIndex and the others are those of subtrees
+		ArrayList<byte[]> methodCodes = new ArrayList<byte[]>();
+		ArrayList<Integer> methodNameIndexes = new ArrayList<Integer>();
+		int root = tree.getRoot();
+		if(root < 0)
+		{
+			writeLeaf(~root);
+			methodCodes.add(Arrays.copyOf(code, codeLength));
+			methodNameIndexes.add(methodNameIndex);
+		}
+		else
+		{
+			boolean[] methodRoots = chooseMethodRoots(root);
+			int[] methodrefIndexes = new int[tree.size()];
+			int[] subtreeMethodNameIndexes = new int[tree.size()];
+			for(int node = 0; node < tree.size(); node++)
+				if(methodRoots[node] && node != root)
+				{
+					subtreeMethodNameIndexes[node] = addUtf8("predictSubtree" + node);
+					methodrefIndexes[node] = addMethodref(classIndex, subtreeMethodNameIndexes[node], methodDescriptorIndex);
+				}
+			subtreeMethodNameIndexes[root] = methodNameIndex;
+			
+			if(!writeMethodCode(root, methodRoots, methodrefIndexes))
+				return null;
+			methodCodes.add(Arrays.copyOf(code, codeLength));
+			methodNameIndexes.add(methodNameIndex);
+			for(int node = 0; node < tree.size(); node++)
+				if(methodRoots[node] && node != root)
+				{
+					if(!writeMethodCode(node, methodRoots, methodrefIndexes))
+						return null;
+					methodCodes.add(Arrays.copyOf(code, codeLength));
+					methodNameIndexes.add(subtreeMethodNameIndexes[node]);
+				}
+		}
+		if(constantPoolSize > MAX_CONSTANT_POOL_SIZE || methodCodes.size() + 1 > MAX_METHODS)
+			return null;
+		
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(classBytes);
+		output.writeInt(0xcafebabe);
+		output.writeShort(0);
+		output.writeShort(49);
+		output.writeShort(constantPoolSize);
+		constantPool.flush();
+		constantPoolBytes.writeTo(output);
+		
+		// public final super class without interfaces or fields
+		output.writeShort(0x0031);
+		output.writeShort(classIndex);
+		output.writeShort(superClassIndex);
+		output.writeShort(0);
+		output.writeShort(0);
+		
+		output.writeShort(1 + methodCodes.size());
+		byte[] constructorCode = new byte[] {(byte)ALOAD_0, (byte)INVOKESPECIAL, (byte)(superConstructorIndex >> 8), (byte)superConstructorIndex, (byte)RETURN};
+		writeMethod(output, PUBLIC, constructorNameIndex, constructorDescriptorIndex, codeAttributeIndex, 1, 1, constructorCode, constructorCode.length);
+		for(int methodIndex = 0; methodIndex < methodCodes.size(); methodIndex++)
+		{
+			byte[] methodCode = methodCodes.get(methodIndex);
+			writeMethod(output, methodIndex == 0 ? PUBLIC : PRIVATE, methodNameIndexes.get(methodIndex), methodDescriptorIndex, codeAttributeIndex, 5, 7, methodCode, methodCode.length);
+		}
+		
+		output.writeShort(0);
+		output.flush();
+		return classBytes.toByteArray();
+	}
+	
+	private void writeMethod(DataOutputStream output, int accessFlags, int nameIndex, int descriptorIndex, int codeAttributeIndex, int maxStack, int maxLocals, byte[] methodCode, int methodCodeLength) throws IOException
+	{
+		output.writeShort(accessFlags);
+		output.writeShort(nameIndex);
+		output.writeShort(descriptorIndex);
+		output.writeShort(1);
+		output.writeShort(codeAttributeIndex);
+		output.writeInt(12 + methodCodeLength);
+		output.writeShort(maxStack);
+		output.writeShort(maxLocals);
+		output.writeInt(methodCodeLength);
+		output.write(methodCode, 0, methodCodeLength);
+		output.writeShort(0);
+		output.writeShort(0);
+	}
+	
+	/*
+	 * Chooses the nodes whose subtrees get methods of their own, the root always does
+	 * Subtrees are measured bottom-up with the longest code a node can have, and the longest child subtrees of a node
+	 * are moved to methods of their own until its subtree fits in a method
+	 */
+	private boolean[] chooseMethodRoots(int root)
+	{
+		int size = tree.size();
+		boolean[] methodRoots = new boolean[size];
+		methodRoots[root] = true;
+		int[] subtreeCodeLengths = new int[size];
+		
+		// Post-order walk, a node is measured once all of its children are
+		int[] stack = new int[16];
+		boolean[] expanded = new boolean[size];
+		boolean[] measured = new boolean[size];
+		stack[0] = root;
+		int stackSize = 1;
+		while(stackSize > 0)
+		{
+			int node = stack[stackSize - 1];
+			int[] children = new int[] {tree.getLeftChild(node), tree.getRightChild(node), tree.getMissingChild(node)};
+			if(!expanded[node])
+			{
+				expanded[node] = true;
+				for(int child : children)
+					if(child >= 0 && !measured[child])
+					{
+						if(stackSize == stack.length)
+							stack = Arrays.copyOf(stack, stackSize * 2);
+						stack[stackSize++] = child;
+					}
+				continue;
+			}
+			stackSize--;
+			if(measured[node])
+				continue;
+			
+			// A child that is also the missing child is counted once
+			if(children[2] == children[0] || children[2] == children[1])
+				children[2] = -1;
+			int codeLength = MAX_NODE_CODE_LENGTH;
+			for(int child : children)
+				if(child >= 0 && !methodRoots[child])
+					codeLength += subtreeCodeLengths[child];
+			while(codeLength > MAX_METHOD_CODE_LENGTH)
+			{
+				int longestChild = -1;
+				for(int child : children)
+					if(child >= 0 && !methodRoots[child] && (longestChild == -1 || subtreeCodeLengths[child] > subtreeCodeLengths[longestChild]))
+						longestChild = child;
+				methodRoots[longestChild] = true;
+				codeLength -= subtreeCodeLengths[longestChild];
+			}
+			subtreeCodeLengths[node] = codeLength;
+			measured[node] = true;
+		}
+		return methodRoots;
+	}
+	
+	/*
+	 * Writes the code of the method of a subtree, which holds the nodes reached from its root without entering the subtrees of other methods
+	 * Nodes are written in the order of their indexes, a child placed right after the code of its parent is reached without a jump
+	 * Returns false if the code or the constant pool outgrow the class file limits
+	 */
+	private boolean writeMethodCode(int methodRoot, boolean[] methodRoots, int[] methodrefIndexes) throws IOException
+	{
+		int size = tree.size();
+		codeLength = 0;
+		
+		boolean[] methodNodes = new boolean[size];
+		int[] stack = new int[16];
+		stack[0] = methodRoot;
+		int stackSize = 1;
+		methodNodes[methodRoot] = true;
+		while(stackSize > 0)
+		{
+			int node = stack[--stackSize];
+			for(int child : new int[] {tree.getLeftChild(node), tree.getRightChild(node), tree.getMissingChild(node)})
+				if(child >= 0 && !methodRoots[child] && !methodNodes[child])
+				{
+					methodNodes[child] = true;
+					if(stackSize == stack.length)
+						stack = Arrays.copyOf(stack, stackSize * 2);
+					stack[stackSize++] = child;
+				}
+		}
+		
+		int[] nodeOffsets = new int[size];
+		
+		// Offsets of the goto_w instructions and the nodes they jump to
+		int[] jumpOffsets = new int[16];
+		int[] jumpNodes = new int[16];
+		int numberOfJumps = 0;
+		
+		int firstNode = 0;
+		while(!methodNodes[firstNode])
+			firstNode++;
+		if(methodRoot != firstNode)
+		{
+			jumpOffsets[numberOfJumps] = codeLength;
+			jumpNodes[numberOfJumps++] = methodRoot;
+			writeByte(GOTO_W);
+			writeInt(0);
+		}
+		
+		for(int node = firstNode; node < size; node++)
+		{
+			if(!methodNodes[node])
+				continue;
+			nodeOffsets[node] = codeLength;
+			int nextNode = node + 1;
+			while(nextNode < size && !methodNodes[nextNode])
+				nextNode++;
+			
+			writeByte(ALOAD);
+			writeByte(COLUMNS_LOCAL);
+			writeIntConstant(tree.getAttributeIndex(node));
+			writeByte(AALOAD);
+			writeByte(ILOAD);
+			writeByte(INSTANCE_INDEX_LOCAL);
+			writeByte(DALOAD);
+			writeByte(DSTORE);
+			writeByte(VALUE_LOCAL);
+			
+			// value == missingValue
+			writeByte(DLOAD);
+			writeByte(VALUE_LOCAL);
+			writeByte(DLOAD);
+			writeByte(MISSING_VALUE_LOCAL);
+			writeByte(DCMPL);
+			int missingBranchOffset = codeLength;
+			writeByte(IFEQ);
+			writeShort(0);
+			
+			// value > threshold, which is also true when the value is NaN
+			writeByte(DLOAD);
+			writeByte(VALUE_LOCAL);
+			writeByte(LDC2_W);
+			writeShort(addDouble(tree.getThreshold(node)));
+			writeByte(DCMPG);
+			int rightBranchOffset = codeLength;
+			writeByte(IFGT);
+			writeShort(0);
+			
+			// Instances with missing values usually follow one of the other children, which then share its code
+			int[] children = new int[] {tree.getLeftChild(node), tree.getRightChild(node), tree.getMissingChild(node)};
+			int[] childOffsets = new int[3];
+			int lastChildIndex = children[2] == children[0] || children[2] == children[1] ? 1 : 2;
+			for(int childIndex = 0; childIndex <= lastChildIndex; childIndex++)
+			{
+				childOffsets[childIndex] = codeLength;
+				int child = children[childIndex];
+				if(child < 0)
+					writeLeaf(~child);
+				else if(methodRoots[child])
+					writeCall(methodrefIndexes[child]);
+				else if(child != nextNode || childIndex != lastChildIndex)
+				{
+					if(numberOfJumps == jumpOffsets.length)
+					{
+						jumpOffsets = Arrays.copyOf(jumpOffsets, numberOfJumps * 2);
+						jumpNodes = Arrays.copyOf(jumpNodes, numberOfJumps * 2);
+					}
+					jumpOffsets[numberOfJumps] = codeLength;
+					jumpNodes[numberOfJumps++] = child;
+					writeByte(GOTO_W);
+					writeInt(0);
+				}
+			}
+			if(lastChildIndex == 1)
+				childOffsets[2] = children[2] == children[0] ? childOffsets[0] : childOffsets[1];
+			patchShort(missingBranchOffset + 1, childOffsets[2] - missingBranchOffset);
+			patchShort(rightBranchOffset + 1, childOffsets[1] - rightBranchOffset);
+			
+			if(codeLength > MAX_METHOD_CODE_LENGTH || constantPoolSize > MAX_CONSTANT_POOL_SIZE)
+				return false;
+		}
+		
+		for(int jumpIndex = 0; jumpIndex < numberOfJumps; jumpIndex++)
+			patchInt(jumpOffsets[jumpIndex] + 1, nodeOffsets[jumpNodes[jumpIndex]] - jumpOffsets[jumpIndex]);
+		return true;
+	}
+	
+	/*
+	 * Returns the leaf index found by the method of a subtree, which takes the same arguments
+	 */
+	private void writeCall(int methodrefIndex)
+	{
+		writeByte(ALOAD_0);
+		writeByte(ALOAD);
+		writeByte(COLUMNS_LOCAL);
+		writeByte(ILOAD);
+		writeByte(INSTANCE_INDEX_LOCAL);
+		writeByte(DLOAD);
+		writeByte(MISSING_VALUE_LOCAL);
+		writeByte(INVOKESPECIAL);
+		writeShort(methodrefIndex);
+		writeByte(IRETURN);
+	}
+	
+	private void writeLeaf(int leafIndex) throws IOException
+	{
+		writeIntConstant(leafIndex);
+		writeByte(IRETURN);
+	}
+	
+	private void writeIntConstant(int value) throws IOException
+	{
+		if(value >= -1 && value <= 5)
+			writeByte(ICONST_0 + value);
+		else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+		{
+			writeByte(BIPUSH);
+			writeByte(value);
+		}
+		else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+		{
+			writeByte(SIPUSH);
+			writeShort(value);
+		}
+		else
+		{
+			writeByte(LDC_W);
+			writeShort(addInt(value));
+		}
+	}
+	
+	private void writeByte(int value)
+	{
+		if(codeLength == code.length)
+			code = Arrays.copyOf(code, code.length * 2);
+		code[codeLength++] = (byte)value;
+	}
+	
+	private void writeShort(int value)
+	{
+		writeByte(value >> 8);
+		writeByte(value);
+	}
+	
+	private void writeInt(int value)
+	{
+		writeShort(value >> 16);
+		writeShort(value);
+	}
+	
+	private void patchShort(int offset, int value)
+	{
+		code[offset] = (byte)(value >> 8);
+		code[offset + 1] = (byte)value;
+	}
+	
+	private void patchInt(int offset, int value)
+	{
+		patchShort(offset, value >> 16);
+		patchShort(offset + 2, value);
+	}
+	
+	private int addUtf8(String value) throws IOException
+	{
+		constantPool.writeByte(1);
+		constantPool.writeUTF(value);
+		return constantPoolSize++;
+	}
+	
+	private int addClass(String className) throws IOException
+	{
+		int nameIndex = addUtf8(className.replace('.', '/'));
+		constantPool.writeByte(7);
+		constantPool.writeShort(nameIndex);
+		return constantPoolSize++;
+	}
+	
+	private int addMethodref(int classIndex, int nameIndex, int descriptorIndex) throws IOException
+	{
+		constantPool.writeByte(12);
+		constantPool.writeShort(nameIndex);
+		constantPool.writeShort(descriptorIndex);
+		int nameAndTypeIndex = constantPoolSize++;
+		constantPool.writeByte(10);
+		constantPool.writeShort(classIndex);
+		constantPool.writeShort(nameAndTypeIndex);
+		return constantPoolSize++;
+	}
+	
+	/*
+	 * Thresholds are shared by their bits, so 0.0 and -0.0 remain distinct constants
+	 */
+	private int addDouble(double value) throws IOException
+	{
+		long bits = Double.doubleToRawLongBits(value);
+		Integer index = doubleConstants.get(bits);
+		if(index != null)
+			return index;
+		constantPool.writeByte(6);
+		constantPool.writeLong(bits);
+		doubleConstants.put(bits, constantPoolSize);
+		constantPoolSize += 2;
+		return constantPoolSize - 2;
+	}
+	
+	private int addInt(int value) throws IOException
+	{
+		Integer index = intConstants.get(value);
+		if(index != null)
+			return index;
+		constantPool.writeByte(3);
+		constantPool.writeInt(value);
+		intConstants.put(value, constantPoolSize);
+		return constantPoolSize++;
+	}
+	
+	private static class PredictorClassLoader extends ClassLoader {
+		
+		public PredictorClassLoader()
+		{
+			super(TreePredictor.class.getClassLoader());
+		}
+		
+		public Class<?> define(String className, byte[] classBytes)
+		{
+			return defineClass(className, classBytes, 0, classBytes.length);
+		}
+	}
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 
 public class Util {
 
@@ -109,6 +111,20 @@ public class Util {
 		return unique;
 	}
 	
+	/*
+	 * Same values as Quicksort.sort(unique(values)) for values without NaNs or negative zeros, sorted with Arrays.sort so that repeated values do not make the sort quadratic
+	 */
+	public static double[] sortedUnique(double[] values)
+	{
+		double[] sorted = Arrays.copyOf(values, values.length);
+		Arrays.sort(sorted);
+		int countUnique = 0;
+		for(int i = 0; i < sorted.length; i++)
+			if(countUnique == 0 || sorted[countUnique - 1] != sorted[i])
+				sorted[countUnique++] = sorted[i];
+		return Arrays.copyOf(sorted, countUnique);
+	}
+	
 	public static int maxIndex(double[] values)
 	{
 		int index = 0;
@@ -137,6 +153,23 @@ public class Util {
 			out[i] = value;
 		return out;
 	}
+	
+	/*
+	 * Indexes of the non-zero values in ascending order, all indexes below length if values is null
+	 */
+	public static int[] nonZeroIndexes(double[] values, int length)
+	{
+		int count = 0;
+		for(int i = 0; i < length; i++)
+			if(values == null || values[i] != 0.0)
+				count++;
+		int[] out = new int[count];
+		count = 0;
+		for(int i = 0; i < length; i++)
+			if(values == null || values[i] != 0.0)
+				out[count++] = i;
+		return out;
+	}
 
 	public static int indexOf(double value, double[] values)
 	{
@@ -2,33 +2,19 @@
 public class ZeroR extends PredictionModel {
 
 	@Override
-	public void construct(Dataset dataset, double[] subset)
+	public void construct(Dataset dataset, Subset subset)
 	{
 		construct(dataset, subset, false);
 	}
 
-	public void construct(Dataset dataset, double[] subset, boolean regression)
+	public void construct(Dataset dataset, Subset subset, boolean regression)
 	{
-		double[] classValues = dataset.getClassValues();
+		int[] classIndexes = dataset.getClassIndexes();
 		double[] uniqueClassValues = dataset.getUniqueClassValues();
 		double[] countClasses = new double[uniqueClassValues.length];
 		
-		for(int instanceIndex = 0; instanceIndex < classValues.length; instanceIndex++)
-		{
-			if(subset != null)
-				if(subset[instanceIndex] == 0.0) continue;
-			for(int classValueIndex = 0; classValueIndex < uniqueClassValues.length; classValueIndex++)
-			{
-				if(uniqueClassValues[classValueIndex] == classValues[instanceIndex])
-				{
-					if(subset != null)
-						countClasses[classValueIndex] += subset[instanceIndex];
-					else
-						countClasses[classValueIndex] += 1.0;
-					break;
-				}
-			}
-		}
+		for(int memberIndex = 0; memberIndex < subset.size(); memberIndex++)
+			countClasses[classIndexes[subset.getInstanceIndex(memberIndex)]] += subset.getWeight(memberIndex);
 		
 		if(regression)
 			defaultPrediction = Util.averageOfDistribution(countClasses, uniqueClassValues);
@@ -108,9 +94,9 @@ public class ZeroR extends PredictionModel {
 	}
 	
 	@Override // Overridden for optimisation
-	public double[][] constructLeafSubsets(Dataset dataset, double[] subset)
+	public Subset[] constructLeafSubsets(Dataset dataset, Subset subset)
 	{
-		return new double[][] {subset};
+		return new Subset[] {subset};
 	}
 	
 	@Override